@@ -0,0 +1,166 @@
+package idbsp.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * BenchmarkResults
+ *
+ * The results file of the benchmarks: a CSV file with one row per
+ * benchmark run, labeled with the commit it was measured on. New runs are
+ * appended, so the file holds the history of all measured commits and any
+ * two of them can be compared.
+ *
+ */
+public class BenchmarkResults {
+
+	private static final Charset CHARSET_ISO_8559_1 = Charset.forName("iso-8859-1");
+
+	static final String HEADER = "label,time,benchmark,param,ops,iterations,mean_ns,min_ns,stddev_ns,alloc_bytes";
+
+	static class Row {
+		String label, time, benchmark, param;
+		long ops;
+		int iterations;
+		double mean, min, stddev, alloc;		// per operation
+
+		String key() {
+			return benchmark + " " + param;
+		}
+
+		String toCsv() {
+			return String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%.3f,%.3f,%.3f,%.1f",
+					label, time, benchmark, param, ops, iterations, mean, min, stddev, alloc);
+		}
+
+		static Row parse(String csv) {
+			String[] f = csv.split(",");
+			if (f.length != 10) {
+				throw new IllegalArgumentException(String.format("BenchmarkResults: bad row %s", csv));
+			}
+			Row row = new Row();
+			row.label = f[0];
+			row.time = f[1];
+			row.benchmark = f[2];
+			row.param = f[3];
+			row.ops = Long.parseLong(f[4]);
+			row.iterations = Integer.parseInt(f[5]);
+			row.mean = Double.parseDouble(f[6]);
+			row.min = Double.parseDouble(f[7]);
+			row.stddev = Double.parseDouble(f[8]);
+			row.alloc = Double.parseDouble(f[9]);
+			return row;
+		}
+	}
+
+	private final Path path;
+
+
+	public BenchmarkResults(Path path) {
+		this.path = path;
+	}
+
+	void append(Row row) throws IOException {
+		boolean exists = Files.exists(path);
+		if (!exists && path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		try (BufferedWriter writer = Files.newBufferedWriter(path, CHARSET_ISO_8559_1, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			if (!exists) {
+				writer.write(HEADER);
+				writer.newLine();
+			}
+			writer.write(row.toCsv());
+			writer.newLine();
+		}
+	}
+
+	List<Row> read() throws IOException {
+		List<Row> rows = new ArrayList<>();
+		if (!Files.exists(path)) {
+			return rows;
+		}
+		for (String line : Files.readAllLines(path, CHARSET_ISO_8559_1)) {
+			if (!line.isEmpty() && !line.equals(HEADER)) {
+				rows.add(Row.parse(line));
+			}
+		}
+		return rows;
+	}
+
+	/*
+	================
+	=
+	= compare
+	=
+	= Prints the latest results of base and label side by side. A benchmark
+	= whose mean time grew by more than threshold percent is a regression.
+	= Without labels the last two labels of the file are compared.
+	= Returns the number of regressions
+	================
+	*/
+
+	public int compare(String base, String label, double threshold) throws IOException {
+		List<Row> rows = read();
+
+		List<String> labels = new ArrayList<>();
+		for (Row row : rows) {
+			labels.remove(row.label);
+			labels.add(row.label);
+		}
+		if (label == null) {
+			if (labels.isEmpty()) {
+				throw new IllegalArgumentException(String.format("BenchmarkResults: no results in %s", path));
+			}
+			label = labels.get(labels.size() - 1);
+		}
+		if (base == null) {
+			labels.remove(label);
+			if (labels.isEmpty()) {
+				throw new IllegalArgumentException(String.format("BenchmarkResults: nothing to compare %s with", label));
+			}
+			base = labels.get(labels.size() - 1);
+		}
+
+		Map<String, Row> before = latest(rows, base);
+		Map<String, Row> after = latest(rows, label);
+
+		System.out.println(String.format("%-24s %-16s %14s %14s %8s %12s %12s", "benchmark", "param",
+				base + " ns", label + " ns", "change", base + " B", label + " B"));
+		int regressions = 0;
+		for (Map.Entry<String, Row> entry : after.entrySet()) {
+			Row b = before.get(entry.getKey());
+			Row a = entry.getValue();
+			if (b == null) {
+				continue;
+			}
+			double change = (a.mean - b.mean) / b.mean * 100;
+			boolean regression = change > threshold;
+			if (regression) {
+				regressions++;
+			}
+			System.out.println(String.format("%-24s %-16s %14.1f %14.1f %+7.1f%% %12.1f %12.1f%s", a.benchmark, a.param,
+					b.mean, a.mean, change, b.alloc, a.alloc, (regression ? "  REGRESSION" : "")));
+		}
+		return regressions;
+	}
+
+	private static Map<String, Row> latest(List<Row> rows, String label) {
+		Map<String, Row> latest = new LinkedHashMap<>();
+		for (Row row : rows) {
+			if (row.label.equals(label)) {
+				latest.put(row.key(), row);
+			}
+		}
+		return latest;
+	}
+}
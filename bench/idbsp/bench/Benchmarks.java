@@ -0,0 +1,290 @@
+package idbsp.bench;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Benchmarks
+ *
+ * Runs the JMH benchmarks of the loader, the partitioner and the geometry
+ * primitives on the maps of a directory and on synthetic maps of growing
+ * size, and appends the results to the results file under the label of
+ * the current commit. Time and allocated bytes (of the GC profiler) are
+ * reported per operation.
+ *
+ * usage: Benchmarks [-maps dir] [-select e1m1,e2m7,...] [-sizes 1000,10000,...]
+ *                   [-maxsplit lines] [-filter text] [-forks n] [-warmups n]
+ *                   [-iterations n] [-time ms] [-results file] [-label name]
+ *        Benchmarks -compare [-base label] [-label name] [-threshold percent] [-results file]
+ *
+ */
+public class Benchmarks {
+
+	private Path mapdir = Paths.get("maps");
+	private List<String> select = Arrays.asList("e1m1", "e2m7", "map14");
+	private int[] sizes = { 1000, 10000, 100000, 1000000 };
+	private int maxsplit = 10000;
+	private String filter = "";
+	private int forks = 1;
+	private int warmups = 3;
+	private int iterations = 5;
+	private long time = 1000;
+	private Path results = Paths.get("bench", "results.csv");
+	private String label = null;
+	private String base = null;
+	private boolean compare = false;
+	private double threshold = 10;
+
+	private String timestamp;
+
+
+	public static void main(String[] args) throws Exception {
+		Benchmarks benchmarks = new Benchmarks();
+		benchmarks.parse(args);
+		if (benchmarks.compare) {
+			int regressions = new BenchmarkResults(benchmarks.results).compare(benchmarks.base, benchmarks.label, benchmarks.threshold);
+			System.exit(regressions > 0 ? 1 : 0);
+		}
+		benchmarks.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if ("-compare".equals(option)) {
+				compare = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException(String.format("Benchmarks: missing value for %s", option));
+			}
+			String value = args[++i];
+			switch (option) {
+			case "-maps":
+				mapdir = Paths.get(value);
+				break;
+			case "-select":
+				select = Arrays.asList(value.split(","));
+				break;
+			case "-sizes":
+				sizes = parseSizes(value);
+				break;
+			case "-maxsplit":
+				maxsplit = Integer.parseInt(value);
+				break;
+			case "-filter":
+				filter = value;
+				break;
+			case "-forks":
+				forks = Integer.parseInt(value);
+				break;
+			case "-warmups":
+				warmups = Integer.parseInt(value);
+				break;
+			case "-iterations":
+				iterations = Integer.parseInt(value);
+				break;
+			case "-time":
+				time = Long.parseLong(value);
+				break;
+			case "-results":
+				results = Paths.get(value);
+				break;
+			case "-label":
+				label = value;
+				break;
+			case "-base":
+				base = value;
+				break;
+			case "-threshold":
+				threshold = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Benchmarks: unknown option %s", option));
+			}
+		}
+	}
+
+	private static int[] parseSizes(String value) {
+		if (value.isEmpty()) {
+			return new int[0];
+		}
+		String[] parts = value.split(",");
+		int[] sizes = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			sizes[i] = Integer.parseInt(parts[i]);
+		}
+		return sizes;
+	}
+
+	/*
+	================
+	=
+	= run
+	=
+	= The selected maps plus the largest map of the directory, then the
+	= synthetic maps. The partitioner only runs on synthetic maps up to
+	= maxsplit lines, its first split alone is quadratic in the lines
+	================
+	*/
+
+	private void run() throws Exception {
+		if (label == null) {
+			label = gitRevision();
+		}
+		timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+
+		List<String> maps = new ArrayList<>();
+		Path largest = null;
+		for (Path map : LoaderBenchmark.listMaps(mapdir)) {
+			if (select.contains(mapName(map))) {
+				maps.add(mapName(map));
+			}
+			if (largest == null || Files.size(map) > Files.size(largest)) {
+				largest = map;
+			}
+		}
+		if (largest != null && !maps.contains(mapName(largest))) {
+			maps.add(mapName(largest));
+		}
+
+		List<String> all = new ArrayList<>(maps);
+		List<String> partitioned = new ArrayList<>(maps);
+		for (int lines : sizes) {
+			all.add(MapState.SYNTHETIC + lines);
+			if (lines <= maxsplit) {
+				partitioned.add(MapState.SYNTHETIC + lines);
+			}
+		}
+
+		List<RunResult> runs = new ArrayList<>();
+		runs.addAll(run(LoaderBenchmark.class, all));
+		runs.addAll(run(GeometryBenchmark.class, all));
+		runs.addAll(run(PartitionBenchmark.class, partitioned));
+
+		System.out.println(String.format("%-24s %-16s %12s %12s %12s %12s %8s", "benchmark", "param", "mean ns", "min ns", "stddev ns", "alloc B", "iter"));
+		for (RunResult run : runs) {
+			BenchmarkResults.Row row = toRow(run);
+			new BenchmarkResults(results).append(row);
+			System.out.println(String.format("%-24s %-16s %12.1f %12.1f %12.1f %12.1f %8d", row.benchmark, row.param,
+					row.mean, row.min, row.stddev, row.alloc, row.iterations));
+		}
+	}
+
+	private static String mapName(Path map) {
+		String name = map.getFileName().toString();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	private Collection<RunResult> run(Class<?> benchmark, List<String> maps) throws Exception {
+		if (maps.isEmpty()) {
+			return new ArrayList<>();
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(Pattern.quote(benchmark.getName() + ".") + "(?i).*" + Pattern.quote(filter))
+				.param("map", maps.toArray(new String[maps.size()]))
+				.jvmArgsAppend("-D" + MapState.MAPS_PROPERTY + "=" + mapdir.toAbsolutePath())
+				.forks(forks)
+				.warmupIterations(warmups)
+				.warmupTime(TimeValue.milliseconds(time))
+				.measurementIterations(iterations)
+				.measurementTime(TimeValue.milliseconds(time))
+				.timeUnit(TimeUnit.NANOSECONDS)
+				.addProfiler(GCProfiler.class);
+		return new Runner(options.build()).run();
+	}
+
+	/*
+	================
+	=
+	= toRow
+	=
+	= The row of the results file for one JMH run. The benchmark is named
+	= by its method and its parameters other than the map, the param column
+	= is the map. One operation is one invocation of the method
+	================
+	*/
+
+	private BenchmarkResults.Row toRow(RunResult run) {
+		BenchmarkParams params = run.getParams();
+		String method = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+		StringBuilder name = new StringBuilder(method.toLowerCase());
+		for (String key : params.getParamsKeys()) {
+			if (!"map".equals(key)) {
+				name.append('.').append(params.getParam(key).toLowerCase());
+			}
+		}
+
+		Statistics statistics = run.getPrimaryResult().getStatistics();
+		BenchmarkResults.Row row = new BenchmarkResults.Row();
+		row.label = label;
+		row.time = timestamp;
+		row.benchmark = name.toString();
+		row.param = params.getParam("map");
+		row.ops = 1;
+		row.iterations = (int) statistics.getN();
+		row.mean = statistics.getMean();
+		row.min = statistics.getMin();
+		row.stddev = statistics.getStandardDeviation();
+		for (Map.Entry<String, Result> entry : run.getSecondaryResults().entrySet()) {
+			if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+				row.alloc = entry.getValue().getScore();
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * The short hash of the checked out commit, with "+" if the work tree has
+	 * changes, or "unlabeled" outside of a git work tree.
+	 */
+	private static String gitRevision() {
+		try {
+			String revision = git("rev-parse", "--short", "HEAD");
+			if (revision == null) {
+				return "unlabeled";
+			}
+			String status = git("status", "--porcelain", "--untracked-files=no");
+			return (status == null || status.isEmpty() ? revision : revision + "+");
+		} catch (Exception _ex) {
+			return "unlabeled";
+		}
+	}
+
+	private static String git(String... args) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add("git");
+		command.addAll(Arrays.asList(args));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				output.append(line).append('\n');
+			}
+		}
+		return (process.waitFor() == 0 ? output.toString().trim() : null);
+	}
+}
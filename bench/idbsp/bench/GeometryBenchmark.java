@@ -0,0 +1,110 @@
+package idbsp.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import idbsp.logic.GeometryKernel;
+import idbsp.types.worldline_t;
+
+/**
+ * GeometryBenchmark
+ *
+ * PointOnSide and LineOnSide of every line of a map against DIVLINES
+ * divlines taken from the map itself, so the share of axis parallel
+ * divlines is the one of the map. One operation is the whole map against
+ * all divlines. linesonside is LineOnSide of all lines in one batch.
+ * Each is run with the float and the fixed kernel.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class GeometryBenchmark {
+
+	private static final int DIVLINES = 16;
+
+	@Param({ "float", "fixed" })
+	public String kernel;
+
+	private int n, d;
+	private double[] x1, y1, x2, y2;
+	private double[] lx, ly, ldx, ldy;
+	private int[] lines_i;
+	private byte[] sides;
+	private GeometryKernel geometry;
+
+
+	@Setup
+	public void setup(MapState state) {
+		geometry = GeometryKernel.parse(kernel);
+		List<worldline_t> lineStore = state.getDoomMap().getLineStore();
+		n = lineStore.size();
+		x1 = new double[n];
+		y1 = new double[n];
+		x2 = new double[n];
+		y2 = new double[n];
+		lines_i = new int[n];
+		sides = new byte[n];
+		for (int i = 0; i < n; i++) {
+			worldline_t wl = lineStore.get(i);
+			x1[i] = wl.p1.x;
+			y1[i] = wl.p1.y;
+			x2[i] = wl.p2.x;
+			y2[i] = wl.p2.y;
+			lines_i[i] = i;
+		}
+
+		d = Math.min(DIVLINES, n);
+		lx = new double[d];
+		ly = new double[d];
+		ldx = new double[d];
+		ldy = new double[d];
+		for (int j = 0; j < d; j++) {
+			int i = (int) ((long) j * n / d);
+			lx[j] = x1[i];
+			ly[j] = y1[i];
+			ldx[j] = x2[i] - x1[i];
+			ldy[j] = y2[i] - y1[i];
+		}
+	}
+
+	@Benchmark
+	public long pointOnSide() {
+		long sum = 0;
+		for (int j = 0; j < d; j++) {
+			for (int i = 0; i < n; i++) {
+				sum += geometry.PointOnSide(x1[i], y1[i], lx[j], ly[j], ldx[j], ldy[j]);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long lineOnSide() {
+		long sum = 0;
+		for (int j = 0; j < d; j++) {
+			for (int i = 0; i < n; i++) {
+				sum += geometry.LineOnSide(x1[i], y1[i], x2[i], y2[i], lx[j], ly[j], ldx[j], ldy[j]);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long linesOnSide() {
+		long sum = 0;
+		for (int j = 0; j < d; j++) {
+			sum += geometry.LinesOnSide(x1, y1, x2, y2, lines_i, 0, n, lx[j], ly[j], ldx[j], ldy[j], sides);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,136 @@
+package idbsp.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import idbsp.logic.DoomMap;
+import idbsp.logic.DoomMapLoader;
+import idbsp.types.sectordef_t;
+import idbsp.types.worldline_t;
+import idbsp.types.worldside_t;
+import idbsp.types.worldthing_t;
+
+/**
+ * LoaderBenchmark
+ * 
+ * Loads a map with each DoomMapLoader mode. Before the modes are measured
+ * the setup checks that all of them give the same DoomMap.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+	private static final PrintStream NULL = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+			//
+		}
+	});
+
+	@Param({ "PATTERN", "SCANNER", "MAPPED" })
+	public DoomMapLoader.Mode mode;
+	
+	
+	@Setup
+	public void check(MapState state) throws Exception {
+		DoomMap reference = load(state.getPath(), DoomMapLoader.Mode.values()[0]);
+		if (!sameMap(reference, load(state.getPath(), mode))) {
+			throw new IllegalStateException(String.format("%s: %s differs from %s", state.getPath(), mode, DoomMapLoader.Mode.values()[0]));
+		}
+	}
+
+	@Benchmark
+	public DoomMap load(MapState state) throws Exception {
+		return load(state.getPath(), mode);
+	}
+	
+	static List<Path> listMaps(Path dir) throws Exception {
+		List<Path> maps = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.dwd")) {
+			for (Path map : stream) {
+				maps.add(map);
+			}
+		}
+		Collections.sort(maps);
+		return maps;
+	}
+	
+	static DoomMap load(Path path, DoomMapLoader.Mode mode) throws Exception {
+		PrintStream out = System.out, err = System.err;
+		System.setOut(NULL);
+		System.setErr(NULL);
+		try {
+			DoomMapLoader loader = new DoomMapLoader();
+			loader.setMode(mode);
+			return loader.load(path);
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+	}
+	
+	static boolean sameMap(DoomMap a, DoomMap b) {
+		if (a.getVersion() != b.getVersion()
+				|| a.getLineStore().size() != b.getLineStore().size()
+				|| a.getThingStore().size() != b.getThingStore().size()) {
+			return false;
+		}
+		for (int i = 0; i < a.getLineStore().size(); i++) {
+			if (!sameLine(a.getLineStore().get(i), b.getLineStore().get(i))) {
+				return false;
+			}
+		}
+		for (int i = 0; i < a.getThingStore().size(); i++) {
+			worldthing_t t1 = a.getThingStore().get(i), t2 = b.getThingStore().get(i);
+			if (t1.origin.x != t2.origin.x || t1.origin.y != t2.origin.y || t1.angle != t2.angle
+					|| t1.type != t2.type || t1.options != t2.options || t1.area != t2.area) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean sameLine(worldline_t l1, worldline_t l2) {
+		if (l1.p1.x != l2.p1.x || l1.p1.y != l2.p1.y || l1.p2.x != l2.p2.x || l1.p2.y != l2.p2.y
+				|| l1.special != l2.special || l1.tag != l2.tag || l1.flags != l2.flags
+				|| l1.side.length != l2.side.length) {
+			return false;
+		}
+		for (int i = 0; i < l1.side.length; i++) {
+			worldside_t s1 = l1.side[i], s2 = l2.side[i];
+			if (s1.firstrow != s2.firstrow || s1.firstcollumn != s2.firstcollumn || s1.sector != s2.sector
+					|| !Objects.equals(s1.toptexture, s2.toptexture)
+					|| !Objects.equals(s1.bottomtexture, s2.bottomtexture)
+					|| !Objects.equals(s1.midtexture, s2.midtexture)) {
+				return false;
+			}
+			sectordef_t e1 = s1.sectordef, e2 = s2.sectordef;
+			if (e1.floorheight != e2.floorheight || e1.ceilingheight != e2.ceilingheight
+					|| e1.lightlevel != e2.lightlevel || e1.special != e2.special || e1.tag != e2.tag
+					|| !Objects.equals(e1.floorflat, e2.floorflat)
+					|| !Objects.equals(e1.ceilingflat, e2.ceilingflat)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
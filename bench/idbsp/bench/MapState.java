@@ -0,0 +1,71 @@
+package idbsp.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import idbsp.logic.DoomMap;
+import idbsp.logic.DoomMapLoader;
+
+/**
+ * MapState
+ *
+ * The map a benchmark runs on. A map is named by its file in the map
+ * directory without .dwd, or as synthetic<lines> for a SyntheticMap of
+ * that many lines, which is written to a temporary file for the trial.
+ * The map directory is the system property idbsp.bench.maps, maps by
+ * default.
+ *
+ */
+@State(Scope.Benchmark)
+public class MapState {
+
+	public static final String MAPS_PROPERTY = "idbsp.bench.maps";
+	public static final String SYNTHETIC = "synthetic";
+
+	@Param({ "e1m1" })
+	public String map;
+
+	private Path path;
+	private Path dir;
+	private DoomMap doomMap;
+
+
+	@Setup
+	public void setup() throws Exception {
+		if (map.startsWith(SYNTHETIC)) {
+			int lines = Integer.parseInt(map.substring(SYNTHETIC.length()));
+			dir = Files.createTempDirectory("idbsp-bench");
+			path = dir.resolve(map + ".dwd");
+			SyntheticMap.write(path, lines, lines);
+		} else {
+			path = Paths.get(System.getProperty(MAPS_PROPERTY, "maps"), map + ".dwd");
+		}
+		doomMap = LoaderBenchmark.load(path, DoomMapLoader.Mode.SCANNER);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		if (dir != null) {
+			Files.delete(path);
+			Files.delete(dir);
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * The map as the scanner loads it, loaded once for the trial.
+	 */
+	public DoomMap getDoomMap() {
+		return doomMap;
+	}
+}
@@ -0,0 +1,64 @@
+package idbsp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import idbsp.logic.BinarySpacePartitioner;
+import idbsp.logic.FixedKernel;
+import idbsp.logic.SplitStrategy;
+
+/**
+ * PartitionBenchmark
+ *
+ * BinarySpacePartitioner.process on a map, one build per operation. The
+ * configurations are the plain exhaustive search, the indexed, parallel
+ * and memoized modes, the other split strategies, all but plain and
+ * parallel on the index, and fixed, the plain search with the FixedKernel.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class PartitionBenchmark {
+
+	@Param({ "plain", "indexed", "parallel", "memo", "stride", "random", "axis", "twopass", "fixed" })
+	public String config;
+
+
+	@Benchmark
+	public int process(MapState state) {
+		BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
+		partitioner.setVerbose(false);
+		switch (config) {
+		case "plain":
+			break;
+		case "parallel":
+			partitioner.setParallel(true);
+			partitioner.setIndexed(true);
+			break;
+		case "indexed":
+			partitioner.setIndexed(true);
+			break;
+		case "memo":
+			partitioner.setIndexed(true);
+			partitioner.setMemoized(true);
+			break;
+		case "fixed":
+			partitioner.setKernel(new FixedKernel());
+			break;
+		default:
+			partitioner.setIndexed(true);
+			partitioner.setStrategy(SplitStrategy.parse(config));
+			break;
+		}
+		partitioner.process(state.getDoomMap());
+		return partitioner.getCuts();
+	}
+}
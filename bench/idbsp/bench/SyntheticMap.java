@@ -0,0 +1,85 @@
+package idbsp.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * SyntheticMap
+ *
+ * Generates doom maps of a given size in the text format of the map files:
+ * one large room filled with a grid of square pillars, each pillar turned by
+ * a random angle, so that only the four outer walls are parallel to the axes.
+ * Tiled maps repeat one pillar instead, unturned and without jitter.
+ * The same size and seed always give the same map.
+ *
+ */
+public class SyntheticMap {
+
+	private static final Charset CHARSET_ISO_8559_1 = Charset.forName("iso-8859-1");
+
+	private static final int SPACING = 64;			// distance between pillar centers
+	private static final double RADIUS = 20;		// half side of a pillar
+	private static final double JITTER = 6;
+
+	private static final String SIDE = "    0 (0 : - / - / STARTAN3 )\n    0 : FLOOR4_8 72 : CEIL3_5 144 0 0\n";
+
+
+	/**
+	 * Writes a map with about the given number of lines (4 + 4 per pillar)
+	 * to file.
+	 */
+	public static void write(Path file, int lines, long seed) throws IOException {
+		write(file, lines, seed, false);
+	}
+
+	public static void write(Path file, int lines, long seed, boolean tiled) throws IOException {
+		int pillars = Math.max(0, (lines - 4) / 4);
+		int grid = (int) Math.ceil(Math.sqrt(Math.max(1, pillars)));
+		Random random = new Random(seed);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(file, CHARSET_ISO_8559_1)) {
+			writer.write("WorldServer version 4\n\n");
+			writer.write(String.format("lines:%d\n", 4 + 4 * pillars));
+
+			// outer walls clockwise, facing into the room; the lowest row stays empty for the player
+			int right = grid * SPACING, top = (grid + 1) * SPACING;
+			writeLine(writer, 0, 0, 0, top);
+			writeLine(writer, 0, top, right, top);
+			writeLine(writer, right, top, right, 0);
+			writeLine(writer, right, 0, 0, 0);
+
+			// pillars counterclockwise, facing out
+			for (int i = 0; i < pillars; i++) {
+				double cx = (i % grid) * SPACING + SPACING / 2;
+				double cy = (i / grid + 1) * SPACING + SPACING / 2;
+				double angle = 0;
+				if (!tiled) {
+					cx += (random.nextDouble() * 2 - 1) * JITTER;
+					cy += (random.nextDouble() * 2 - 1) * JITTER;
+					angle = random.nextDouble() * Math.PI / 2;
+				}
+				int[] x = new int[4], y = new int[4];
+				for (int c = 0; c < 4; c++) {
+					double a = angle + c * Math.PI / 2 + Math.PI / 4;
+					x[c] = (int) Math.round(cx + Math.cos(a) * RADIUS * Math.sqrt(2));
+					y[c] = (int) Math.round(cy + Math.sin(a) * RADIUS * Math.sqrt(2));
+				}
+				for (int c = 0; c < 4; c++) {
+					writeLine(writer, x[c], y[c], x[(c + 1) % 4], y[(c + 1) % 4]);
+				}
+			}
+
+			writer.write("\nthings:1\n");
+			writer.write(String.format("(%d,%d, 90) :1, 7\n", SPACING, SPACING / 2));
+		}
+	}
+
+	private static void writeLine(BufferedWriter writer, int x1, int y1, int x2, int y2) throws IOException {
+		writer.write(String.format("(%d,%d) to (%d,%d) : 1 : 0 : 0\n", x1, y1, x2, y2));
+		writer.write(SIDE);
+	}
+}
@@ -0,0 +1,110 @@
+package idbsp.logic;
+
+import java.util.function.Consumer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * PartitionEvents
+ *
+ * The JFR events of PartitionMetrics. Only loaded through PartitionMetrics,
+ * needs a runtime with jdk.jfr (8u262 or later). jdk.jfr is not part of
+ * the Java 8 API, so this source folder is compiled on its own, against
+ * the JDK of the build, with Java 8 class files.
+ *
+ */
+class PartitionEvents implements Consumer<PartitionMetrics> {
+
+	@Name("idbsp.Partition")
+	@Label("Partition")
+	@Category("idbsp")
+	@Description("Summary of one run of the partitioner")
+	@StackTrace(false)
+	static class PartitionEvent extends Event {
+		@Label("Segments")
+		int segments;
+		@Label("Cuts")
+		int cuts;
+		@Label("Cache Hit")
+		boolean cacheHit;
+		@Label("Nodes")
+		long nodes;
+		@Label("Leaves")
+		long leaves;
+		@Label("Max Depth")
+		int maxDepth;
+		@Label("Mean Depth")
+		double meanDepth;
+		@Label("Min Segments per Leaf")
+		int minLeafSegments;
+		@Label("Max Segments per Leaf")
+		int maxLeafSegments;
+		@Label("Mean Segments per Leaf")
+		double meanLeafSegments;
+		@Label("LineOnSide Calls")
+		long lineOnSideCalls;
+		@Label("Candidates Evaluated")
+		long candidatesEvaluated;
+		@Label("Candidates Early Exit")
+		long candidatesEarlyExit;
+		@Label("Candidates Not Partitioning")
+		long candidatesNotPartitioning;
+		@Label("Memo Hits")
+		long memoHits;
+		@Label("Memo Misses")
+		long memoMisses;
+	}
+
+	@Name("idbsp.PartitionPhase")
+	@Label("Partition Phase")
+	@Category("idbsp")
+	@Description("Time spent in one phase of the partitioner")
+	@StackTrace(false)
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long nanos;
+	}
+
+
+	@Override
+	public void accept(PartitionMetrics metrics) {
+		PartitionEvent event = new PartitionEvent();
+		if (event.isEnabled()) {
+			event.segments = metrics.getSegments();
+			event.cuts = metrics.getCuts();
+			event.cacheHit = metrics.isCacheHit();
+			event.nodes = metrics.getNodes();
+			event.leaves = metrics.getLeaves();
+			event.maxDepth = metrics.getMaxDepth();
+			event.meanDepth = metrics.getMeanDepth();
+			event.minLeafSegments = metrics.getMinLeafSegments();
+			event.maxLeafSegments = metrics.getMaxLeafSegments();
+			event.meanLeafSegments = metrics.getMeanLeafSegments();
+			event.lineOnSideCalls = metrics.getLineOnSideCalls();
+			event.candidatesEvaluated = metrics.getCandidatesEvaluated();
+			event.candidatesEarlyExit = metrics.getCandidatesEarlyExit();
+			event.candidatesNotPartitioning = metrics.getCandidatesNotPartitioning();
+			event.memoHits = metrics.getMemoHits();
+			event.memoMisses = metrics.getMemoMisses();
+			event.commit();
+		}
+
+		for (PartitionMetrics.Phase phase : PartitionMetrics.Phase.values()) {
+			PhaseEvent phaseEvent = new PhaseEvent();
+			if (phaseEvent.isEnabled()) {
+				phaseEvent.phase = phase.getKey();
+				phaseEvent.nanos = metrics.getNanos(phase);
+				phaseEvent.commit();
+			}
+		}
+	}
+}
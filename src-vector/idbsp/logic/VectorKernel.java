@@ -0,0 +1,208 @@
+package idbsp.logic;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernel
+ *
+ * The FloatKernel with LinesOnSide on the lanes of a DoubleVector, as many
+ * lines at once as the preferred species has lanes. The arithmetic is the
+ * one of FloatKernel in the same order and without fused multiply-adds, so
+ * every side is the one FloatKernel decides and the trees are the same.
+ * The name stays float for that reason.
+ *
+ * Compiled apart from src, from src-vector, against jdk.incubator.vector.
+ * FloatKernel.create takes it when the runtime has that module.
+ *
+ */
+public class VectorKernel extends FloatKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	// the sides of the ends and of the lines of one vector, which lines are
+	// colinear and the sides of the lines after the last whole vector
+	private static class Scratch {
+		final double[] end1 = new double[LANES], end2 = new double[LANES];
+		final double[] codes = new double[LANES], colinear = new double[LANES];
+		final byte[] tail = new byte[LANES];
+	}
+
+	/*
+	==================
+	=
+	= LinesOnSide
+	=
+	= The whole vectors of lines go to axisSides or slopingSides, the lines
+	= after them and divlines of no length or not a number to FloatKernel
+	==================
+	*/
+
+	@Override
+	public long LinesOnSide(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int from, int to,
+			double lx, double ly, double ldx, double ldy, byte[] sides) {
+		if ((ldx == 0 && ldy == 0) || Double.isNaN(ldx) || Double.isNaN(ldy)) {
+			return super.LinesOnSide(x1, y1, x2, y2, lines_i, from, to, lx, ly, ldx, ldy, sides);
+		}
+
+		Scratch scratch = SCRATCH.get();
+		int end = from + (to - from) / LANES * LANES;
+		long counts;
+		if (ldx == 0 || ldy == 0) {
+			counts = axisSides(x1, y1, x2, y2, lines_i, from, end, lx, ly, ldx, ldy, sides, scratch);
+		} else {
+			counts = slopingSides(x1, y1, x2, y2, lines_i, from, end, lx, ly, ldx, ldy, sides, scratch);
+		}
+
+		if (end < to) {
+			long tail = super.LinesOnSide(x1, y1, x2, y2, lines_i, end, to, lx, ly, ldx, ldy, (sides != null ? scratch.tail : null));
+			if (sides != null) {
+				System.arraycopy(scratch.tail, 0, sides, end - from, to - end);
+			}
+			counts += tail;
+		}
+		return counts;
+	}
+
+	/*
+	==================
+	=
+	= axisSides
+	=
+	= The ends of LANES lines at a time are gathered by lines_i into vectors
+	= and their sides stored as 1 (front), -1 (back) or 0 (colinear), the
+	= first and the second end in turn. A line with an end
+	= in front counts in front, with an end on the back on the back, with
+	= both it is split and counts on both sides as in FloatKernel. Lines
+	= with both ends colinear, which are rare, are left to colinearSides.
+	=
+	= The loops have no branches the vectors live across, as the JIT only
+	= keeps vectors in registers that do not merge, and are in methods of
+	= their own and do the two ends in one code, as it boxes vectors where
+	= a method is too large for inlining
+	==================
+	*/
+
+	private static long axisSides(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int from, int end,
+			double lx, double ly, double ldx, double ldy, byte[] sides, Scratch scratch) {
+		// the coordinate across the divline, back below it if lessIsBack
+		double l = (ldx == 0 ? lx : ly);
+		double lo = l - 2, hi = l + 2;
+		VectorMask<Double> lessIsBack = SPECIES.maskAll(ldx == 0 ? ldy > 0 : ldx < 0);
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+		int front = 0, back = 0;
+
+		for (int i = from; i < end; i += LANES) {
+			for (int e = 0; e < 2; e++) {
+				DoubleVector p = DoubleVector.fromArray(SPECIES, (ldx == 0 ? (e == 0 ? x1 : x2) : (e == 0 ? y1 : y2)), 0, lines_i, i);
+				VectorMask<Double> colinear = p.compare(VectorOperators.GT, lo).and(p.compare(VectorOperators.LT, hi));
+				VectorMask<Double> below = p.compare(VectorOperators.LT, l).eq(lessIsBack);
+				one.blend(-1, below).blend(0, colinear).intoArray((e == 0 ? scratch.end1 : scratch.end2), 0);
+			}
+			long counts = lineSides(x1, y1, x2, y2, lines_i, i, ldx, ldy, sides, i - from, scratch);
+			front += (int) (counts >>> 32);
+			back += (int) counts;
+		}
+		return ((long) front << 32) | back;
+	}
+
+	/*
+	==================
+	=
+	= slopingSides
+	=
+	= As axisSides, with the band test b^2 - 4ac > 0 and the cross product
+	= of Utils.PointOnSide
+	==================
+	*/
+
+	private static long slopingSides(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int from, int end,
+			double lx, double ly, double ldx, double ldy, byte[] sides, Scratch scratch) {
+		double a = ldx * ldx + ldy * ldy;
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+		int front = 0, back = 0;
+
+		for (int i = from; i < end; i += LANES) {
+			for (int e = 0; e < 2; e++) {
+				DoubleVector dx = DoubleVector.fromArray(SPECIES, (e == 0 ? x1 : x2), 0, lines_i, i).sub(lx);
+				DoubleVector dy = DoubleVector.fromArray(SPECIES, (e == 0 ? y1 : y2), 0, lines_i, i).sub(ly);
+				DoubleVector b = dx.mul(ldx).add(dy.mul(ldy)).mul(-2.0);
+				DoubleVector c = dx.mul(dx).add(dy.mul(dy)).sub(4.0);
+				VectorMask<Double> colinear = b.mul(b).sub(c.mul(4 * a)).compare(VectorOperators.GT, 0);
+				VectorMask<Double> right = dx.mul(ldy).sub(dy.mul(ldx)).compare(VectorOperators.GT, 0);
+				one.neg().blend(1, right).blend(0, colinear).intoArray((e == 0 ? scratch.end1 : scratch.end2), 0);
+			}
+			long counts = lineSides(x1, y1, x2, y2, lines_i, i, ldx, ldy, sides, i - from, scratch);
+			front += (int) (counts >>> 32);
+			back += (int) counts;
+		}
+		return ((long) front << 32) | back;
+	}
+
+	/*
+	==================
+	=
+	= lineSides
+	=
+	= The counts and sides of the lines by the sides of their ends in
+	= scratch.end1 and scratch.end2
+	==================
+	*/
+
+	private static long lineSides(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int i,
+			double ldx, double ldy, byte[] sides, int offset, Scratch scratch) {
+		DoubleVector end1 = DoubleVector.fromArray(SPECIES, scratch.end1, 0);
+		DoubleVector end2 = DoubleVector.fromArray(SPECIES, scratch.end2, 0);
+		VectorMask<Double> onFront = end1.max(end2).compare(VectorOperators.GT, 0);
+		VectorMask<Double> onBack = end1.min(end2).compare(VectorOperators.LT, 0);
+		VectorMask<Double> colinear = end1.compare(VectorOperators.EQ, 0).and(end2.compare(VectorOperators.EQ, 0));
+		int front = onFront.trueCount(), back = onBack.trueCount();
+
+		if (sides != null) {
+			DoubleVector.zero(SPECIES).blend(1, onBack).blend(-2, onBack.and(onFront)).intoArray(scratch.codes, 0);
+			for (int lane = 0; lane < LANES; lane++) {
+				sides[offset + lane] = (byte) scratch.codes[lane];
+			}
+		}
+		if (colinear.anyTrue()) {
+			DoubleVector.zero(SPECIES).blend(1, colinear).intoArray(scratch.colinear, 0);
+			long counts = colinearSides(x1, y1, x2, y2, lines_i, i, ldx, ldy, sides, offset, scratch);
+			front += (int) (counts >>> 32);
+			back += (int) counts;
+		}
+		return ((long) front << 32) | back;
+	}
+
+	/*
+	==================
+	=
+	= colinearSides
+	=
+	= The lanes marked in scratch.colinear are in front if they go the same
+	= direction as the divline, on the back otherwise
+	==================
+	*/
+
+	private static long colinearSides(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int i,
+			double ldx, double ldy, byte[] sides, int offset, Scratch scratch) {
+		int front = 0, back = 0;
+		for (int lane = 0; lane < LANES; lane++) {
+			if (scratch.colinear[lane] != 0) {
+				int line_p = lines_i[i + lane];
+				double dx = x2[line_p] - x1[line_p];
+				double dy = y2[line_p] - y1[line_p];
+				int side = (Math.signum(dx) == Math.signum(ldx) && Math.signum(dy) == Math.signum(ldy) ? 0 : 1);
+				if (sides != null) {
+					sides[offset + lane] = (byte) side;
+				}
+				front += (side != 1 ? 1 : 0);
+				back += (side != 0 ? 1 : 0);
+			}
+		}
+		return ((long) front << 32) | back;
+	}
+}
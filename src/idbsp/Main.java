@@ -1,15 +1,28 @@
 package idbsp;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
+import idbsp.drawing.DrawCommands;
 import idbsp.drawing.Drawing;
+import idbsp.drawing.FrameBuffer;
+import idbsp.drawing.FrameScheduler;
+import idbsp.drawing.ImageScreen;
+import idbsp.drawing.Screen;
+import idbsp.logic.BatchBuilder;
 import idbsp.logic.BinarySpacePartitioner;
+import idbsp.logic.BspCache;
+import idbsp.logic.BspTraversal;
 import idbsp.logic.CommandLineArguments;
 import idbsp.logic.DoomMap;
 import idbsp.logic.DoomMapLoader;
-import idbsp.logic.Utils;
+import idbsp.logic.PartitionMetrics;
+import idbsp.logic.PointLocator;
+import idbsp.logic.WadWriter;
 import idbsp.types.NXPoint;
 import idbsp.types.bbox_t;
 import idbsp.types.bspnode_t;
@@ -28,7 +41,9 @@ public class Main {
 	private CommandLineArguments arguments = new CommandLineArguments();
 	private DoomMapLoader doomMapLoader = new DoomMapLoader();
 	private BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
-	private Drawing drawing = new Drawing();
+	private Screen screen;
+	private DrawCommands drawing;
+	private BspTraversal traversal = new BspTraversal();
 	
 	private DoomMap doomMap;
 	
@@ -38,7 +53,9 @@ public class Main {
 			Main main = new Main();
 			
 			main.init(args);
-			main.start();
+			if (main.screen != null) {
+				main.start();
+			}
 			
 			System.err.println("exit");
 			
@@ -50,13 +67,53 @@ public class Main {
 	
 	private void init(String[] args) throws Exception {
 		arguments.parse(args);
+		if (arguments.isBatch()) {
+			new BatchBuilder(arguments).build();
+			return;
+		}
+		
 		Path path = Paths.get(arguments.getInmapname());
+		doomMapLoader.setMode(arguments.getLoaderMode());
+		long start = System.nanoTime();
 		doomMap = doomMapLoader.load(path);
+		long loadNanos = System.nanoTime() - start;
 		
+		partitioner.setParallel(arguments.isParallel());
+		partitioner.setIndexed(arguments.isIndexed());
+		partitioner.setMemoized(arguments.isMemo());
+		partitioner.setStrategy(arguments.getStrategy());
+		partitioner.setKernel(arguments.getKernel());
+		if (arguments.getCachename() != null) {
+			partitioner.setCache(new BspCache(Paths.get(arguments.getCachename()), arguments.getCacheSize()));
+		}
 		partitioner.process(doomMap);		
-		bbox_t bbox = partitioner.getNode().bbox;
 		
-		drawing.init(bbox);
+		if (arguments.getMetricsname() != null) {
+			PartitionMetrics metrics = partitioner.getMetrics();
+			metrics.add(PartitionMetrics.Phase.LOAD, loadNanos);
+			Files.write(Paths.get(arguments.getMetricsname()), metrics.toJson().getBytes(Charset.forName("iso-8859-1")));
+		}
+		
+		if (arguments.isCheckThings()) {
+			PointLocator locator = new PointLocator(doomMap, partitioner.getNode());
+			PointLocator.report(System.out, WadWriter.mapName(path), doomMap.getThingStore(), locator.classifyThings());
+		}
+		
+		try (WadWriter wadWriter = new WadWriter(Paths.get(arguments.getOutmapname()))) {
+			wadWriter.setReject(arguments.isReject());
+			wadWriter.addMap(WadWriter.mapName(path), doomMap, partitioner.getNode());
+		}
+		
+		if (arguments.getSnapshotname() != null) {
+			bbox_t bbox = partitioner.getNode().bbox;
+			screen = new ImageScreen(new FrameBuffer(arguments.getWidth(), arguments.getHeight(), bbox),
+					Paths.get(arguments.getSnapshotname()));
+		} else if (arguments.isDraw()) {
+			bbox_t bbox = partitioner.getNode().bbox;
+			Drawing window = new Drawing();
+			window.init(bbox);
+			screen = window;
+		}
 		
 	}
 	
@@ -74,26 +131,34 @@ public class Main {
 	}
 	
 	private void drawNode(bspnode_t node, byte c) {
-		drawing.restore(0);
+		drawing.clearOverlay();
 		drawBBox(node.bbox, (byte) 7);
 		
 		if (node.lines_i != null) {
 			drawLines(node.lines_i, (byte) 6);
-			drawing.update(null);
-			Utils.sleep(50);
+			drawing.frame(50);
 			
 			return;
 		}
 
-		drawing.update(null);
-		Utils.sleep(50);
+		drawing.frame(50);
 
 		drawNode(node.side[0], (byte) 6);
 		drawNode(node.side[1], (byte) 7);
 		
 	}
 
-	private void start() {
+	/*
+	================
+	=
+	= start
+	=
+	= Records the drawing of the walk, then lets a FrameScheduler play it
+	================
+	*/
+
+	private void start() throws IOException {
+		drawing = new DrawCommands();
 		for (worldline_t line : doomMap.getLineStore()) {
 			drawing.drawSegment(line.p1.x, line.p1.y, line.p2.x, line.p2.y, (byte) 5);
 		}
@@ -104,36 +169,48 @@ public class Main {
 		// -2496,-960
 //		view.pt.x = -2176;
 //		view.pt.y = -2096;
-		view.pt.x = -2496;
-		view.pt.y = -960;
+		view.pt.x = arguments.getViewX();
+		view.pt.y = arguments.getViewY();
+		view.angle = Math.toRadians(arguments.getViewAngle());
 		
 		for (int i = -4; i < 4; i++)
 			for (int j = -4; j < 4; j++) 
 		drawing.drawSegment(view.pt.x + j, view.pt.y + i, view.pt.x + j, view.pt.y + i, (byte) 6);
+		for (int i = -1; i <= 1; i += 2) {
+			double a = view.angle + i * BspTraversal.DEFAULT_FIELD_OF_VIEW / 2;
+			drawing.drawSegment(view.pt.x, view.pt.y, view.pt.x + 256 * Math.cos(a), view.pt.y + 256 * Math.sin(a), (byte) 7);
+		}
 		
-		drawing.update(null);
-		drawing.save();
+		drawing.frame(0);
+		drawing.setLayer(FrameBuffer.Layer.OVERLAY);
 		
 //		drawNode(partitioner.getNode(), (byte) 6);
 		
 		RenderBSPNode(partitioner.getNode(), view);
-		drawing.update(null);
+		drawing.frame(0);
+		System.out.println(String.format("view %.0f,%.0f %.0f: %s", view.pt.x, view.pt.y, Math.toDegrees(view.angle), traversal));
+		
+		FrameScheduler scheduler = new FrameScheduler(screen, drawing, arguments.getFps());
+		scheduler.setSkip(arguments.getSkip());
+		scheduler.setFastForward(arguments.isFastForward());
+		scheduler.play();
 		
 	}
 	
+	/*
+	================
+	=
+	= RenderBSPNode
+	=
+	= The leaves a BspTraversal reaches from the view, front to back, with
+	= their visible segments
+	================
+	*/
+
 	private void RenderBSPNode(bspnode_t node, view_t view) {
-		if (node.lines_i != null) {
-			drawLines(node.lines_i, (byte) 6);
-			drawing.update(null);	
-			Utils.sleep(1000);
-			return;
-		}
-		
-		int side = Utils.PointOnSide(view.pt, node.divline);
-		if (side == -1) side = 0;
-		System.out.println("\tView side: " + side);
-		
-		RenderBSPNode(node.side[side], view);
-		RenderBSPNode(node.side[side ^ 1], view);
+		traversal.traverse(node, view.pt.x, view.pt.y, view.angle, (leaf, visible) -> {
+			drawLines(visible, (byte) 6);
+			drawing.frame(1000);
+		});
 	}
 }
@@ -0,0 +1,215 @@
+package idbsp.analysis;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import idbsp.logic.BatchBuilder;
+import idbsp.logic.BinarySpacePartitioner;
+import idbsp.logic.DoomMap;
+import idbsp.logic.DoomMapLoader;
+import idbsp.logic.GeometryKernel;
+import idbsp.logic.SplitStrategy;
+import idbsp.logic.WadWriter;
+
+/**
+ * TreeComparison
+ *
+ * Builds every map of a directory with two settings of the partitioner and
+ * prints the measures of both trees side by side, per map and summed up:
+ * build time, cuts, leaves, max and average leaf depth, segments per leaf
+ * and the traversal cost of TreeStats. A lower traversal cost means less
+ * work per frame at runtime, the build time is what the settings cost up
+ * front.
+ *
+ * Each side has its own split strategy, kernel and parallel, indexed and
+ * memoized switches, all off by default, so e.g. -a exhaustive -b
+ * exhaustive -bindexed compares the build time of the index alone.
+ *
+ * usage: TreeComparison [-maps dir|glob] [-samples n] [-seed n] [-levels]
+ *                       [-a strategy] [-akernel float|fixed] [-aparallel] [-aindexed] [-amemo]
+ *                       [-b strategy] [-bkernel float|fixed] [-bparallel] [-bindexed] [-bmemo]
+ *
+ */
+public class TreeComparison {
+
+	private String maps = "maps";
+	private final Settings a = new Settings("exhaustive");
+	private final Settings b = new Settings("stride");
+	private int samples = TreeStats.DEFAULT_SAMPLES;
+	private long seed = 1;
+	private boolean levels = false;
+
+	// how one side builds its trees
+	private static class Settings {
+		SplitStrategy strategy;
+		GeometryKernel kernel = GeometryKernel.parse("float");
+		boolean parallel, indexed, memoized;
+
+		Settings(String strategy) {
+			this.strategy = SplitStrategy.parse(strategy);
+		}
+
+		/**
+		 * e.g. exhaustive/float indexed
+		 */
+		String describe() {
+			return strategy.getName() + "/" + kernel.getName() + (parallel ? " parallel" : "")
+					+ (indexed ? " indexed" : "") + (memoized ? " memo" : "");
+		}
+	}
+
+	private static class Build {
+		TreeStats stats;
+		int cuts;
+		double millis;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		TreeComparison comparison = new TreeComparison();
+		comparison.parse(args);
+		comparison.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if ("-levels".equals(option)) {
+				levels = true;
+				continue;
+			}
+			if (flag(option)) {
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException(String.format("TreeComparison: missing value for %s", option));
+			}
+			String value = args[++i];
+			switch (option) {
+			case "-maps":
+				maps = value;
+				break;
+			case "-a":
+				a.strategy = SplitStrategy.parse(value);
+				break;
+			case "-b":
+				b.strategy = SplitStrategy.parse(value);
+				break;
+			case "-akernel":
+				a.kernel = GeometryKernel.parse(value);
+				break;
+			case "-bkernel":
+				b.kernel = GeometryKernel.parse(value);
+				break;
+			case "-samples":
+				samples = Integer.parseInt(value);
+				break;
+			case "-seed":
+				seed = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("TreeComparison: unknown option %s", option));
+			}
+		}
+	}
+
+	// the switches of a side, -aparallel to -bmemo
+	private boolean flag(String option) {
+		if (!option.startsWith("-a") && !option.startsWith("-b")) {
+			return false;
+		}
+		Settings settings = (option.charAt(1) == 'a' ? a : b);
+		switch (option.substring(2)) {
+		case "parallel":
+			settings.parallel = true;
+			return true;
+		case "indexed":
+			settings.indexed = true;
+			return true;
+		case "memo":
+			settings.memoized = true;
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/*
+	================
+	=
+	= run
+	=
+	= Both sides see the same viewpoints: they are drawn once per map from
+	= its lines and passed to both analyses
+	================
+	*/
+
+	private void run() throws Exception {
+		List<Path> paths = BatchBuilder.findMaps(maps);
+		if (paths.isEmpty()) {
+			throw new IllegalArgumentException(String.format("TreeComparison: no maps found for %s", maps));
+		}
+
+		System.out.println(String.format("a = %s, b = %s, %d viewpoints", a.describe(), b.describe(), samples));
+		System.out.println(String.format("%-10s %13s %13s %13s %15s %13s %17s %15s", "map", "ms a/b", "cuts a/b", "leaves a/b",
+				"depth a/b", "segs/leaf a/b", "traversal a/b", "change"));
+
+		double[] total = new double[8];
+		for (Path path : paths) {
+			DoomMapLoader loader = new DoomMapLoader();
+			loader.setVerbose(false);
+			DoomMap doomMap = loader.load(path);
+			double[] viewpoints = TreeStats.viewpoints(doomMap.getLineStore(), samples, seed);
+			Build ba = build(doomMap, a, viewpoints);
+			Build bb = build(doomMap, b, viewpoints);
+
+			double change = (ba.stats.getTraversalCost() == 0 ? 0
+					: (bb.stats.getTraversalCost() - ba.stats.getTraversalCost()) / ba.stats.getTraversalCost() * 100);
+			System.out.println(String.format(Locale.ROOT, "%-10s %6.0f/%-6.0f %6d/%-6d %6d/%-6d %2d/%-2d %4.1f/%-4.1f %6.2f/%-6.2f %8.1f/%-8.1f %+14.1f%%",
+					WadWriter.mapName(path), ba.millis, bb.millis, ba.cuts, bb.cuts,
+					ba.stats.getLeaves(), bb.stats.getLeaves(),
+					ba.stats.getMaxDepth(), bb.stats.getMaxDepth(), ba.stats.getAverageDepth(), bb.stats.getAverageDepth(),
+					ba.stats.getSegmentsPerLeaf(), bb.stats.getSegmentsPerLeaf(),
+					ba.stats.getTraversalCost(), bb.stats.getTraversalCost(), change));
+			if (levels) {
+				System.out.println("  a:");
+				ba.stats.print(System.out);
+				System.out.println("  b:");
+				bb.stats.print(System.out);
+			}
+
+			total[0] += ba.millis;
+			total[1] += bb.millis;
+			total[2] += ba.cuts;
+			total[3] += bb.cuts;
+			total[4] += ba.stats.getLeaves();
+			total[5] += bb.stats.getLeaves();
+			total[6] += ba.stats.getTraversalCost();
+			total[7] += bb.stats.getTraversalCost();
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-10s %6.0f/%-6.0f %6.0f/%-6.0f %6.0f/%-6.0f %29s %8.1f/%-8.1f %+14.1f%%",
+				"total", total[0], total[1], total[2], total[3], total[4], total[5], "",
+				total[6] / paths.size(), total[7] / paths.size(),
+				(total[6] == 0 ? 0 : (total[7] - total[6]) / total[6] * 100)));
+	}
+
+	private Build build(DoomMap doomMap, Settings settings, double[] viewpoints) {
+		BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
+		partitioner.setStrategy(settings.strategy);
+		partitioner.setKernel(settings.kernel);
+		partitioner.setParallel(settings.parallel);
+		partitioner.setIndexed(settings.indexed);
+		partitioner.setMemoized(settings.memoized);
+		partitioner.setVerbose(false);
+		long start = System.nanoTime();
+		partitioner.process(doomMap);
+
+		Build build = new Build();
+		build.millis = (System.nanoTime() - start) / 1e6;
+		build.cuts = partitioner.getCuts();
+		build.stats = TreeStats.analyze(partitioner.getNode(), viewpoints);
+		return build;
+	}
+}
@@ -0,0 +1,313 @@
+package idbsp.analysis;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import idbsp.logic.Utils;
+import idbsp.types.bbox_t;
+import idbsp.types.bspnode_t;
+import idbsp.types.worldline_t;
+
+/**
+ * TreeStats
+ *
+ * Shape and quality measures of a built tree: depth, balance per level,
+ * leaves and the segments in them, and an estimate of what a front to back
+ * walk of the tree costs at runtime.
+ *
+ * The traversal cost is measured from sampled viewpoints. A viewpoint is
+ * placed just in front of a random side of a line, so it lies inside the
+ * map, and looks in a random direction. The walk visits the nodes whose bbox
+ * is in the field of view and the segments of the visited leaves; the cost
+ * is the number of nodes plus segments visited, averaged over the samples.
+ *
+ */
+public class TreeStats {
+
+	public static final int DEFAULT_SAMPLES = 1000;
+	public static final double FIELD_OF_VIEW = Math.PI / 2;
+
+	private static final double VIEW_OFFSET = 4;		// distance of a viewpoint from its segment
+
+	private int nodes;
+	private int leaves;
+	private int segments;
+	private int maxLeafSegments;
+	private int maxDepth;
+	private long depthSum;								// of the leaves
+	private int[] levelNodes = new int[0];				// nodes per depth, without leaves
+	private int[] levelLeaves = new int[0];
+	private double[] levelBalance = new double[0];		// sum of balance per depth
+
+	private int samples;
+	private long sampleNodes;
+	private long sampleSegments;
+	private long sampleDepth;
+
+
+	/**
+	 * Measures the tree, then samples its traversal cost from the
+	 * viewpoints of viewpoints().
+	 */
+	public static TreeStats analyze(bspnode_t node, double[] viewpoints) {
+		TreeStats stats = new TreeStats();
+		stats.walk(node, 0);
+		stats.sample(node, viewpoints);
+		return stats;
+	}
+
+	/*
+	================
+	=
+	= viewpoints
+	=
+	= Up to count viewpoints with the given seed, as x, y and angle in turn.
+	= They are drawn from the lines of the map, not from the segments of a
+	= tree, so all trees of a map can be sampled from the same points.
+	= Lines of zero length give no viewpoint
+	================
+	*/
+
+	public static double[] viewpoints(List<worldline_t> lines, int count, long seed) {
+		if (lines.isEmpty()) {
+			return new double[0];
+		}
+		Random random = new Random(seed);
+		double[] viewpoints = new double[3 * count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			worldline_t line = lines.get(random.nextInt(lines.size()));
+			int side = random.nextInt(line.side.length);
+			double angle = random.nextDouble() * 2 * Math.PI;
+			double dx = line.p2.x - line.p1.x;
+			double dy = line.p2.y - line.p1.y;
+			double length = Math.sqrt(dx * dx + dy * dy);
+			if (length == 0) {
+				continue;
+			}
+			double offset = (side == 0 ? VIEW_OFFSET : -VIEW_OFFSET) / length;	// right of the line is the front of side 0
+			viewpoints[n++] = (line.p1.x + line.p2.x) / 2 + dy * offset;
+			viewpoints[n++] = (line.p1.y + line.p2.y) / 2 - dx * offset;
+			viewpoints[n++] = angle;
+		}
+		return Arrays.copyOf(viewpoints, n);
+	}
+
+	/*
+	================
+	=
+	= walk
+	=
+	= Returns the leaves below node. The balance of a node is the smaller of
+	= the leaf counts of its sides divided by the larger, 1 for a perfectly
+	= balanced split
+	================
+	*/
+
+	private int walk(bspnode_t node, int depth) {
+		if (levelNodes.length <= depth) {
+			levelNodes = Arrays.copyOf(levelNodes, depth + 1);
+			levelLeaves = Arrays.copyOf(levelLeaves, depth + 1);
+			levelBalance = Arrays.copyOf(levelBalance, depth + 1);
+		}
+
+		if (node.lines_i != null) {
+			levelLeaves[depth]++;
+			leaves++;
+			segments += node.lines_i.size();
+			maxLeafSegments = Math.max(maxLeafSegments, node.lines_i.size());
+			maxDepth = Math.max(maxDepth, depth);
+			depthSum += depth;
+			return 1;
+		}
+
+		levelNodes[depth]++;
+		nodes++;
+		int front = walk(node.side[0], depth + 1);
+		int back = walk(node.side[1], depth + 1);
+		levelBalance[depth] += (double) Math.min(front, back) / Math.max(front, back);
+		return front + back;
+	}
+
+	/*
+	================
+	=
+	= sample
+	=
+	================
+	*/
+
+	private void sample(bspnode_t root, double[] viewpoints) {
+		for (int i = 0; i + 2 < viewpoints.length; i += 3) {
+			double x = viewpoints[i], y = viewpoints[i + 1], angle = viewpoints[i + 2];
+			samples++;
+			sampleDepth += locate(root, x, y);
+			visit(root, x, y, angle);
+		}
+	}
+
+	/**
+	 * The nodes tested to find the leaf of a point.
+	 */
+	private static int locate(bspnode_t node, double x, double y) {
+		int depth = 0;
+		while (node.lines_i == null) {
+			int side = Utils.PointOnSide(x, y, node.divline);
+			node = node.side[side == 1 ? 1 : 0];
+			depth++;
+		}
+		return depth;
+	}
+
+	private void visit(bspnode_t node, double x, double y, double angle) {
+		if (!inView(node.bbox, x, y, angle)) {
+			return;
+		}
+		sampleNodes++;
+		if (node.lines_i != null) {
+			sampleSegments += node.lines_i.size();
+			return;
+		}
+		int side = Utils.PointOnSide(x, y, node.divline);
+		if (side == 1) {
+			visit(node.side[1], x, y, angle);
+			visit(node.side[0], x, y, angle);
+		} else {
+			visit(node.side[0], x, y, angle);
+			visit(node.side[1], x, y, angle);
+		}
+	}
+
+	/*
+	================
+	=
+	= inView
+	=
+	= True if the bbox overlaps the field of view from (x, y) looking along
+	= angle. Seen from outside, the corners of a box span less than half a
+	= turn, so their angles around the angle of the box center give the
+	= interval the box covers
+	================
+	*/
+
+	static boolean inView(bbox_t bbox, double x, double y, double angle) {
+		if (x >= bbox.x1 && x <= bbox.x2 && y >= bbox.y1 && y <= bbox.y2) {
+			return true;
+		}
+		double center = Math.atan2((bbox.y1 + bbox.y2) / 2 - y, (bbox.x1 + bbox.x2) / 2 - x);
+		double min = 0, max = 0;
+		for (int corner = 0; corner < 4; corner++) {
+			double cx = ((corner & 1) == 0 ? bbox.x1 : bbox.x2);
+			double cy = ((corner & 2) == 0 ? bbox.y1 : bbox.y2);
+			double a = normalize(Math.atan2(cy - y, cx - x) - center);
+			min = Math.min(min, a);
+			max = Math.max(max, a);
+		}
+		double view = normalize(angle - center);
+		return view + FIELD_OF_VIEW / 2 >= min && view - FIELD_OF_VIEW / 2 <= max;
+	}
+
+	private static double normalize(double a) {
+		while (a > Math.PI) {
+			a -= 2 * Math.PI;
+		}
+		while (a <= -Math.PI) {
+			a += 2 * Math.PI;
+		}
+		return a;
+	}
+
+	public int getNodes() {
+		return nodes;
+	}
+
+	public int getLeaves() {
+		return leaves;
+	}
+
+	/**
+	 * Segments in all leaves, cut segments counted once per piece.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Average depth of the leaves.
+	 */
+	public double getAverageDepth() {
+		return (leaves == 0 ? 0 : (double) depthSum / leaves);
+	}
+
+	public double getSegmentsPerLeaf() {
+		return (leaves == 0 ? 0 : (double) segments / leaves);
+	}
+
+	public int getMaxLeafSegments() {
+		return maxLeafSegments;
+	}
+
+	/**
+	 * Average balance of the nodes at depth, 0 if there are none.
+	 */
+	public double getBalance(int depth) {
+		if (depth >= levelNodes.length || levelNodes[depth] == 0) {
+			return 0;
+		}
+		return levelBalance[depth] / levelNodes[depth];
+	}
+
+	/**
+	 * Average balance of all nodes.
+	 */
+	public double getBalance() {
+		double sum = 0;
+		for (double balance : levelBalance) {
+			sum += balance;
+		}
+		return (nodes == 0 ? 0 : sum / nodes);
+	}
+
+	/**
+	 * Average nodes plus segments visited by a walk from the sampled
+	 * viewpoints.
+	 */
+	public double getTraversalCost() {
+		return (samples == 0 ? 0 : (double) (sampleNodes + sampleSegments) / samples);
+	}
+
+	public double getVisitedNodes() {
+		return (samples == 0 ? 0 : (double) sampleNodes / samples);
+	}
+
+	public double getVisitedSegments() {
+		return (samples == 0 ? 0 : (double) sampleSegments / samples);
+	}
+
+	/**
+	 * Average nodes tested to find the leaf of a viewpoint.
+	 */
+	public double getLocateDepth() {
+		return (samples == 0 ? 0 : (double) sampleDepth / samples);
+	}
+
+	public void print(PrintStream out) {
+		out.println(String.format(Locale.ROOT, "nodes %d  leaves %d  segments %d  segments/leaf %.2f (max %d)",
+				nodes, leaves, segments, getSegmentsPerLeaf(), maxLeafSegments));
+		out.println(String.format(Locale.ROOT, "depth max %d  avg %.2f  balance %.3f",
+				maxDepth, getAverageDepth(), getBalance()));
+		out.println(String.format(Locale.ROOT, "traversal %.1f (%.1f nodes, %.1f segments)  locate %.2f  from %d viewpoints",
+				getTraversalCost(), getVisitedNodes(), getVisitedSegments(), getLocateDepth(), samples));
+		out.println("depth    nodes   leaves  balance");
+		for (int depth = 0; depth < levelNodes.length; depth++) {
+			out.println(String.format(Locale.ROOT, "%5d %8d %8d %8.3f", depth, levelNodes[depth], levelLeaves[depth], getBalance(depth)));
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package idbsp.drawing;
+
+import java.util.Arrays;
+
+/**
+ * DrawCommands
+ *
+ * Drawing recorded for later, so walking the tree does not have to wait
+ * for the screen. The commands are those of FrameBuffer plus frame, which
+ * ends a frame and says how long it should stay on the screen. Commands
+ * are kept in parallel arrays, one row per command.
+ *
+ */
+public class DrawCommands {
+
+	private static final byte SEGMENT = 0;
+	private static final byte LAYER = 1;
+	private static final byte CLEAR = 2;
+	private static final byte FRAME = 3;
+
+	private byte[] ops = new byte[256];
+	private byte[] colors = new byte[256];
+	private double[] args = new double[4 * 256];		// x1 y1 x2 y2, layer ordinal, frame millis
+	private int count = 0;
+	private int frames = 0;
+
+
+	private int add(byte op) {
+		if (count == ops.length) {
+			ops = Arrays.copyOf(ops, 2 * count);
+			colors = Arrays.copyOf(colors, 2 * count);
+			args = Arrays.copyOf(args, 8 * count);
+		}
+		ops[count] = op;
+		return count++;
+	}
+
+	public void drawSegment(double x1, double y1, double x2, double y2, byte c) {
+		int i = add(SEGMENT);
+		colors[i] = c;
+		args[4 * i] = x1;
+		args[4 * i + 1] = y1;
+		args[4 * i + 2] = x2;
+		args[4 * i + 3] = y2;
+	}
+
+	public void setLayer(FrameBuffer.Layer layer) {
+		int i = add(LAYER);
+		args[4 * i] = layer.ordinal();
+	}
+
+	public void clearOverlay() {
+		add(CLEAR);
+	}
+
+	/**
+	 * Ends a frame that should be shown for millis.
+	 */
+	public void frame(long millis) {
+		int i = add(FRAME);
+		args[4 * i] = millis;
+		frames++;
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/*
+	================
+	=
+	= replay
+	=
+	= Draws the commands from first on into the frame buffer, up to and
+	= including the end of the next frame. Returns the command after it, or
+	= size() if the commands ran out without ending a frame
+	================
+	*/
+
+	public int replay(FrameBuffer frameBuffer, int first) {
+		for (int i = first; i < count; i++) {
+			switch (ops[i]) {
+			case SEGMENT:
+				int run = 1;			// segments of one color in a row are drawn as a batch
+				while (i + run < count && ops[i + run] == SEGMENT && colors[i + run] == colors[i]) {
+					run++;
+				}
+				frameBuffer.drawSegments(args, 4 * i, run, colors[i]);
+				i += run - 1;
+				break;
+			case LAYER:
+				frameBuffer.setLayer(FrameBuffer.Layer.values()[(int) args[4 * i]]);
+				break;
+			case CLEAR:
+				frameBuffer.clearOverlay();
+				break;
+			case FRAME:
+				return i + 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The millis of the frame ended by the command before next, 0 if that
+	 * is no frame end.
+	 */
+	public long getMillis(int next) {
+		return (next > 0 && ops[next - 1] == FRAME ? (long) args[4 * (next - 1)] : 0);
+	}
+}
@@ -8,22 +8,24 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
-import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.IndexColorModel;
-import java.awt.image.WritableRaster;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.swing.JFrame;
 
 import idbsp.logic.Utils;
 import idbsp.types.bbox_t;
 
-public class Drawing extends JFrame {
+/**
+ * Drawing
+ *
+ * The Screen on the display: a full-screen window, or a window of the
+ * display size if full-screen is not supported. Needs a display, use an
+ * ImageScreen on headless machines.
+ *
+ */
+public class Drawing extends JFrame implements Screen {
 
 	/**
 	 * 
@@ -31,21 +33,13 @@ public class Drawing extends JFrame {
 	private static final long serialVersionUID = 1L;
 
 	public static final String MOCHA_DOOM_TITLE = "Mocha Doom Alpha 1.6";
-	public static final int BORDER = 32;
-
     protected GraphicsDevice device;
     
     protected Dimension size;
-    protected Image screen;
-    protected byte[] data;
+    protected FrameBuffer frameBuffer;
 	protected Canvas drawhere;
     protected Graphics2D g2d;
 
-	private double fac;
-	private double off_x, off_y;
-	
-	private List<byte[]> saved = new ArrayList<>();
-
 	
 	public void init(bbox_t bbox) throws Exception {
         GraphicsEnvironment env = GraphicsEnvironment.getLocalGraphicsEnvironment();
@@ -64,17 +58,7 @@ public class Drawing extends JFrame {
 		size = new Dimension(dm.getWidth(), dm.getHeight());
 		System.out.println(String.format("%d %d display mode", size.width, size.height));
 		
-		double fx = (size.width - 2 * BORDER) / (bbox.x2 - bbox.x1);
-		double fy = (size.height - 2 * BORDER) / (bbox.y2 - bbox.y1);
-		
-		fac = Math.min(fx, fy);
-		off_x = (bbox.x2 + bbox.x1) / 2;
-		off_y = (bbox.y2 + bbox.y1) / 2;
-		
-		IndexColorModel icm = ColorTable.createIndexColorModel();
-		WritableRaster wr = icm.createCompatibleWritableRaster(size.width, size.height);
-		data = ((DataBufferByte) wr.getDataBuffer()).getData();
-		screen = new BufferedImage(icm, wr, false, null);
+		frameBuffer = new FrameBuffer(size.width, size.height, bbox);
 
 		boolean isFullScreen = device.isFullScreenSupported();
 		setUndecorated(isFullScreen);
@@ -142,7 +126,7 @@ public class Drawing extends JFrame {
 			g2d = (Graphics2D) drawhere.getGraphics();
 		}
 		if (g2d != null) {
-			g2d.drawImage(screen, 0, 0, this);
+			g2d.drawImage(frameBuffer.getImage(), 0, 0, this);
 		}
     }
     
@@ -152,73 +136,41 @@ public class Drawing extends JFrame {
         drawhere.setBackground(Color.black);
     }
 	
-    public void plot(int x, int y, byte c) {
-    	if (x < 0 || x >= size.width || y < 0 || y >= size.height) return;
-    	data[y * size.width + x] = c;
-    }
-    
-    public void drawLine(int x1, int y1, int x2, int y2, byte c) {
-        // delta of exact value and rounded value of the dependent variable
-        int d = 0;
- 
-        int dx = Math.abs(x2 - x1);
-        int dy = Math.abs(y2 - y1);
- 
-        int dx2 = 2 * dx; // slope scaling factors to
-        int dy2 = 2 * dy; // avoid floating point
- 
-        int ix = x1 < x2 ? 1 : -1; // increment direction
-        int iy = y1 < y2 ? 1 : -1;
- 
-        int x = x1;
-        int y = y1;
- 
-        if (dx >= dy) {
-            while (true) {
-                plot(x, y, c);
-                if (x == x2)
-                    break;
-                x += ix;
-                d += dy2;
-                if (d > dx) {
-                    y += iy;
-                    d -= dx2;
-                }
-            }
-        } else {
-            while (true) {
-                plot(x, y, c);
-                if (y == y2)
-                    break;
-                y += iy;
-                d += dx2;
-                if (d > dy) {
-                    x += ix;
-                    d -= dy2;
-                }
-            }
-        }
-    }
-    
-    public void drawSegment(double x1, double y1, double x2, double y2, byte c) {
-    	drawLine(
-    			(int) ((size.width / 2) + fac * (x1 - off_x)),
-    			(int) ((size.height / 2) - fac * (y1 - off_y)),
-    			(int) ((size.width / 2) + fac * (x2 - off_x)),
-    			(int) ((size.height / 2) - fac * (y2 - off_y)),
-    			c
-    			);
-    }
-    
-    public int save() {
-    	byte[] temp = new byte[data.length];
-    	System.arraycopy(data, 0, temp, 0, data.length);
-    	saved.add(temp);
-    	return saved.size() - 1;
-    }
-    
-    public void restore(int index) {
-    	byte[] temp = saved.get(index);
-    	System.arraycopy(temp, 0, data, 0, data.length);
-    }
+	@Override
+	public FrameBuffer getFrameBuffer() {
+		return frameBuffer;
+	}
+
+	@Override
+	public boolean isRealtime() {
+		return true;
+	}
+
+	/**
+	 * Blits the part of the frame buffer that changed since the last frame.
+	 */
+	@Override
+	public void present() {
+		Rectangle damage = frameBuffer.takeDamage();
+		if (damage == null) {
+			return;
+		}
+		if (g2d == null) {
+			g2d = (Graphics2D) drawhere.getGraphics();
+		}
+		if (g2d != null) {
+			g2d.drawImage(frameBuffer.getImage(), damage.x, damage.y, damage.x + damage.width, damage.y + damage.height,
+					damage.x, damage.y, damage.x + damage.width, damage.y + damage.height, this);
+		}
+	}
+
+	@Override
+	public void pause(long millis) {
+		Utils.sleep(millis);
+	}
+
+	@Override
+	public void close() {
+		// the window stays until a key is pressed
+	}
 } 
@@ -0,0 +1,383 @@
+package idbsp.drawing;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+
+import idbsp.types.bbox_t;
+
+/**
+ * FrameBuffer
+ *
+ * The indexed screen the map is drawn into, one byte per pixel with the
+ * colors of the ColorTable. Map coordinates are scaled so the bbox given
+ * fits the screen with a BORDER around it. A FrameBuffer needs no display,
+ * a Screen shows it in a window or writes it to image files.
+ *
+ * Drawing goes to one of two layers. The base layer holds what stays, like
+ * the lines of the map, and is kept in a buffer of its own. The overlay
+ * holds what changes from frame to frame, like the node being looked at,
+ * and only exists on the screen: the rectangles it touched are recorded,
+ * and clearOverlay copies just those back from the base layer instead of
+ * the whole screen.
+ *
+ * The screen area changed since the last takeDamage is tracked too, so a
+ * window only needs to blit that part.
+ *
+ */
+public class FrameBuffer {
+
+	public static final int BORDER = 32;
+
+	public enum Layer {
+		BASE,
+		OVERLAY
+	}
+
+	private static final int MAX_DIRTY = 64;		// rectangles, more are merged into one
+	private static final double GUARD = 1 << 24;	// screen coordinates beyond are clipped
+
+	private final int width, height;
+	private final IndexColorModel icm;
+	private final BufferedImage image;
+	private final byte[] data;					// the screen: base layer with the overlay on top
+	private final byte[] base;
+
+	private final double fac;
+	private final double off_x, off_y;
+
+	private Layer layer = Layer.BASE;
+	private final int[] dirty = new int[4 * MAX_DIRTY];	// x1 y1 x2 y2 of the overlay, inclusive
+	private int dirtyCount = 0;
+	private int damage_x1, damage_y1, damage_x2 = -1, damage_y2 = -1;	// empty if x2 < x1
+
+
+	public FrameBuffer(int width, int height, bbox_t bbox) {
+		if (width <= 2 * BORDER || height <= 2 * BORDER) {
+			throw new IllegalArgumentException(String.format("FrameBuffer: size %dx%d too small", width, height));
+		}
+		this.width = width;
+		this.height = height;
+
+		double fx = (width - 2 * BORDER) / (bbox.x2 - bbox.x1);
+		double fy = (height - 2 * BORDER) / (bbox.y2 - bbox.y1);
+
+		fac = Math.min(fx, fy);
+		off_x = (bbox.x2 + bbox.x1) / 2;
+		off_y = (bbox.y2 + bbox.y1) / 2;
+
+		icm = ColorTable.createIndexColorModel();
+		WritableRaster wr = icm.createCompatibleWritableRaster(width, height);
+		data = ((DataBufferByte) wr.getDataBuffer()).getData();
+		image = new BufferedImage(icm, wr, false, null);
+		base = new byte[data.length];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The image backed by the buffer, it changes with every drawing.
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * A copy of the current contents.
+	 */
+	public BufferedImage copyImage() {
+		WritableRaster wr = icm.createCompatibleWritableRaster(width, height);
+		System.arraycopy(data, 0, ((DataBufferByte) wr.getDataBuffer()).getData(), 0, data.length);
+		return new BufferedImage(icm, wr, false, null);
+	}
+
+	public Layer getLayer() {
+		return layer;
+	}
+
+	/**
+	 * The layer drawn into from now on. Drawing into the base layer shows
+	 * over the overlay until the overlay is cleared.
+	 */
+	public void setLayer(Layer layer) {
+		this.layer = layer;
+	}
+
+	/*
+	================
+	=
+	= clearOverlay
+	=
+	= Copies the base layer back into the rectangles the overlay touched
+	================
+	*/
+
+	public void clearOverlay() {
+		for (int r = 0; r < dirtyCount; r++) {
+			int x1 = dirty[4 * r], y1 = dirty[4 * r + 1], x2 = dirty[4 * r + 2], y2 = dirty[4 * r + 3];
+			for (int y = y1; y <= y2; y++) {
+				System.arraycopy(base, y * width + x1, data, y * width + x1, x2 - x1 + 1);
+			}
+			damage(x1, y1, x2, y2);
+		}
+		dirtyCount = 0;
+	}
+
+	/**
+	 * The area changed since the last call, null if nothing changed.
+	 */
+	public Rectangle takeDamage() {
+		if (damage_x2 < damage_x1) {
+			return null;
+		}
+		Rectangle rectangle = new Rectangle(damage_x1, damage_y1, damage_x2 - damage_x1 + 1, damage_y2 - damage_y1 + 1);
+		damage_x2 = damage_x1 - 1;
+		return rectangle;
+	}
+
+	private void damage(int x1, int y1, int x2, int y2) {
+		if (damage_x2 < damage_x1) {
+			damage_x1 = x1;
+			damage_y1 = y1;
+			damage_x2 = x2;
+			damage_y2 = y2;
+			return;
+		}
+		damage_x1 = Math.min(damage_x1, x1);
+		damage_y1 = Math.min(damage_y1, y1);
+		damage_x2 = Math.max(damage_x2, x2);
+		damage_y2 = Math.max(damage_y2, y2);
+	}
+
+	/*
+	================
+	=
+	= touch
+	=
+	= Records the screen rectangle a drawing is going to change. Returns
+	= false if it is off the screen. Overlay rectangles beyond MAX_DIRTY are
+	= merged into the last one
+	================
+	*/
+
+	private boolean touch(int x1, int y1, int x2, int y2) {
+		x1 = Math.max(x1, 0);
+		y1 = Math.max(y1, 0);
+		x2 = Math.min(x2, width - 1);
+		y2 = Math.min(y2, height - 1);
+		if (x1 > x2 || y1 > y2) {
+			return false;
+		}
+		damage(x1, y1, x2, y2);
+		if (layer == Layer.BASE) {
+			return true;
+		}
+
+		if (dirtyCount == MAX_DIRTY) {
+			int r = 4 * (dirtyCount - 1);
+			dirty[r] = Math.min(dirty[r], x1);
+			dirty[r + 1] = Math.min(dirty[r + 1], y1);
+			dirty[r + 2] = Math.max(dirty[r + 2], x2);
+			dirty[r + 3] = Math.max(dirty[r + 3], y2);
+			return true;
+		}
+		int r = 4 * dirtyCount++;
+		dirty[r] = x1;
+		dirty[r + 1] = y1;
+		dirty[r + 2] = x2;
+		dirty[r + 3] = y2;
+		return true;
+	}
+
+	public void plot(int x, int y, byte c) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return;
+		data[y * width + x] = c;
+		if (layer == Layer.BASE) {
+			base[y * width + x] = c;
+		}
+	}
+
+	/*
+	================
+	=
+	= drawLine
+	=
+	= Bresenham, clipped to the screen before stepping: the steps outside
+	= are skipped by computing where the stepping enters and leaves the
+	= screen, so the pixels are the same as stepping the whole line and
+	= only plotting those on the screen
+	================
+	*/
+
+	public void drawLine(int x1, int y1, int x2, int y2, byte c) {
+		if (!touch(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2))) {
+			return;
+		}
+
+		long dx = Math.abs((long) x2 - x1);
+		long dy = Math.abs((long) y2 - y1);
+
+		int ix = x1 < x2 ? 1 : -1; // increment direction
+		int iy = y1 < y2 ? 1 : -1;
+
+		if (dx >= dy) {
+			span(data, x1, y1, dx, dy, ix, iy, width - 1, height - 1, 1, width, c);
+			if (layer == Layer.BASE) {
+				span(base, x1, y1, dx, dy, ix, iy, width - 1, height - 1, 1, width, c);
+			}
+		} else {
+			span(data, y1, x1, dy, dx, iy, ix, height - 1, width - 1, width, 1, c);
+			if (layer == Layer.BASE) {
+				span(base, y1, x1, dy, dx, iy, ix, height - 1, width - 1, width, 1, c);
+			}
+		}
+	}
+
+	/*
+	================
+	=
+	= span
+	=
+	= Steps k = 0 .. da along the major axis a, from a1 in direction ia.
+	= After k steps the minor axis b has moved m(k) times in direction ib,
+	= m(k) = max(0, ceil((2 * k * db - da) / (2 * da))), and the error term
+	= is 2 * k * db - 2 * m(k) * da. sa and sb are the strides of the axes
+	= in the buffer
+	================
+	*/
+
+	private static void span(byte[] target, int a1, int b1, long da, long db, int ia, int ib, int amax, int bmax, int sa, int sb, byte c) {
+		long da2 = 2 * da; // slope scaling factors to
+		long db2 = 2 * db; // avoid floating point
+
+		// steps with a on the screen
+		long klo = Math.max(0, (ia > 0 ? -a1 : (long) a1 - amax));
+		long khi = Math.min(da, (ia > 0 ? (long) amax - a1 : a1));
+
+		// minor moves with b on the screen, and the steps they are made at
+		long mlo = Math.max(0, (ib > 0 ? -b1 : (long) b1 - bmax));
+		long mhi = Math.min(db, (ib > 0 ? (long) bmax - b1 : b1));
+		if (mlo > mhi) {
+			return;
+		}
+		if (mlo > 0) {
+			klo = Math.max(klo, firstStep(mlo, da, db));
+		}
+		if (mhi < db) {
+			khi = Math.min(khi, firstStep(mhi + 1, da, db) - 1);
+		}
+		if (klo > khi) {
+			return;
+		}
+
+		long m = moves(klo, da, db);
+		long d = klo * db2 - m * da2;	// delta of exact value and rounded value of the dependent variable
+		int p = (int) ((a1 + ia * klo) * sa + (b1 + ib * m) * sb);
+		int pa = ia * sa;
+		int pb = ib * sb;
+
+		for (long k = klo; ; k++) {
+			target[p] = c;
+			if (k == khi)
+				break;
+			p += pa;
+			d += db2;
+			if (d > da) {
+				p += pb;
+				d -= da2;
+			}
+		}
+	}
+
+	private static long moves(long k, long da, long db) {
+		long n = k * 2 * db - da;
+		return (n <= 0 ? 0 : (n + 2 * da - 1) / (2 * da));
+	}
+
+	/**
+	 * The step at which the minor axis has moved m >= 1 times.
+	 */
+	private static long firstStep(long m, long da, long db) {
+		return ((m - 1) * 2 * da + da) / (2 * db) + 1;
+	}
+
+	public void drawSegment(double x1, double y1, double x2, double y2, byte c) {
+		drawScreenSegment(
+				(width / 2) + fac * (x1 - off_x),
+				(height / 2) - fac * (y1 - off_y),
+				(width / 2) + fac * (x2 - off_x),
+				(height / 2) - fac * (y2 - off_y),
+				c
+				);
+	}
+
+	/**
+	 * Draws count segments of one color, segment i being x1 y1 x2 y2 at
+	 * coords[offset + 4 * i] in map coordinates.
+	 */
+	public void drawSegments(double[] coords, int offset, int count, byte c) {
+		for (int i = offset, end = offset + 4 * count; i < end; i += 4) {
+			drawScreenSegment(
+					(width / 2) + fac * (coords[i] - off_x),
+					(height / 2) - fac * (coords[i + 1] - off_y),
+					(width / 2) + fac * (coords[i + 2] - off_x),
+					(height / 2) - fac * (coords[i + 3] - off_y),
+					c
+					);
+		}
+	}
+
+	/*
+	================
+	=
+	= drawScreenSegment
+	=
+	= Segments completely off one side of the screen are rejected, the
+	= coordinates are truncated towards zero. Far off segments are cut to
+	= GUARD by Liang-Barsky first, so their ends still fit an int; near ones
+	= are left alone, the clipping in drawLine keeps their pixels exact
+	================
+	*/
+
+	private void drawScreenSegment(double x1, double y1, double x2, double y2, byte c) {
+		if ((x1 <= -1 && x2 <= -1) || (y1 <= -1 && y2 <= -1) || (x1 >= width && x2 >= width) || (y1 >= height && y2 >= height)) {
+			return;
+		}
+		if (Math.abs(x1) > GUARD || Math.abs(y1) > GUARD || Math.abs(x2) > GUARD || Math.abs(y2) > GUARD) {
+			double dx = x2 - x1, dy = y2 - y1;
+			double t0 = 0, t1 = 1;
+			double[] p = { -dx, dx, -dy, dy };
+			double[] q = { x1 + GUARD, GUARD - x1, y1 + GUARD, GUARD - y1 };
+			for (int i = 0; i < 4; i++) {
+				if (p[i] == 0) {
+					if (q[i] < 0) {
+						return;
+					}
+					continue;
+				}
+				double t = q[i] / p[i];
+				if (p[i] < 0) {
+					t0 = Math.max(t0, t);
+				} else {
+					t1 = Math.min(t1, t);
+				}
+			}
+			if (t0 > t1) {
+				return;
+			}
+			x2 = x1 + t1 * dx;
+			y2 = y1 + t1 * dy;
+			x1 = x1 + t0 * dx;
+			y1 = y1 + t0 * dy;
+		}
+		drawLine((int) x1, (int) y1, (int) x2, (int) y2, c);
+	}
+}
@@ -0,0 +1,118 @@
+package idbsp.drawing;
+
+import java.io.IOException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * FrameScheduler
+ *
+ * Plays recorded DrawCommands on a Screen at a fixed frame rate. Each
+ * recorded frame is held for as many ticks as its millis take, at least
+ * one. Fast-forward holds every frame for one tick; skip only presents
+ * every skip-th frame, the frames between are drawn but not shown.
+ *
+ * On a realtime screen the frames are played by a Swing Timer on the
+ * event dispatch thread and play returns at once. Other screens get all
+ * frames right away, with the time they would have been held as pause.
+ *
+ */
+public class FrameScheduler {
+
+	public static final int DEFAULT_FPS = 20;
+
+	private final Screen screen;
+	private final DrawCommands commands;
+	private final int fps;
+	private int skip = 1;
+	private boolean fastForward = false;
+
+	private int next = 0;					// command to replay next
+	private int frame = 0;
+	private int hold = 0;					// ticks the presented frame still stays
+	private Timer timer;
+
+
+	public FrameScheduler(Screen screen, DrawCommands commands, int fps) {
+		if (fps < 1) {
+			throw new IllegalArgumentException(String.format("FrameScheduler: bad frame rate %d", fps));
+		}
+		this.screen = screen;
+		this.commands = commands;
+		this.fps = fps;
+	}
+
+	public void setSkip(int skip) {
+		if (skip < 1) {
+			throw new IllegalArgumentException(String.format("FrameScheduler: bad skip %d", skip));
+		}
+		this.skip = skip;
+	}
+
+	public void setFastForward(boolean fastForward) {
+		this.fastForward = fastForward;
+	}
+
+	public void play() throws IOException {
+		if (!screen.isRealtime()) {
+			while (next < commands.size()) {
+				int ticks = step();
+				if (ticks > 0) {
+					screen.pause(ticks * 1000L / fps);
+				}
+			}
+			screen.close();
+			return;
+		}
+
+		SwingUtilities.invokeLater(() -> {
+			timer = new Timer(1000 / fps, (e) -> tick());
+			timer.start();
+		});
+	}
+
+	private void tick() {
+		if (hold > 0) {
+			hold--;
+			return;
+		}
+		try {
+			hold = step() - 1;
+			if (next == commands.size()) {
+				timer.stop();
+				screen.close();
+			}
+		} catch (IOException _ex) {
+			timer.stop();
+			_ex.printStackTrace();
+		}
+	}
+
+	/*
+	================
+	=
+	= step
+	=
+	= Replays up to the next frame that is shown and presents it. Returns the
+	= ticks it should stay, 0 if nothing was left to show
+	================
+	*/
+
+	private int step() throws IOException {
+		while (next < commands.size()) {
+			next = commands.replay(screen.getFrameBuffer(), next);
+			long millis = commands.getMillis(next);
+			boolean last = (next == commands.size());
+			if (frame++ % skip != 0 && !last) {
+				continue;
+			}
+			screen.present();
+			if (fastForward) {
+				return 1;
+			}
+			return (int) Math.max(1, (millis * fps + 999) / 1000);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,166 @@
+package idbsp.drawing;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * ImageScreen
+ *
+ * A Screen without a display, for headless machines. The frames go to
+ * image files, depending on the file name:
+ *
+ *   name.gif		all frames as an animated GIF, each frame lasting as
+ *   				long as the pauses after it
+ *   name%05d.png	every frame as a numbered PNG
+ *   name.png		the last frame only
+ *
+ * Pauses never wait.
+ *
+ */
+public class ImageScreen implements Screen {
+
+	private static final int MIN_DELAY = 20;		// ms per GIF frame, viewers ignore shorter delays
+
+	private final FrameBuffer frameBuffer;
+	private final Path path;
+	private final boolean animated;
+	private final boolean numbered;
+
+	private int frames = 0;
+	private BufferedImage pending;				// the last frame, written on the next present or close
+	private long pendingDelay;
+
+	private ImageWriter gifWriter;
+	private ImageOutputStream output;
+
+
+	public ImageScreen(FrameBuffer frameBuffer, Path path) {
+		String name = path.getFileName().toString().toLowerCase();
+		this.frameBuffer = frameBuffer;
+		this.path = path;
+		this.animated = name.endsWith(".gif");
+		this.numbered = name.contains("%");
+		if (!animated && !name.endsWith(".png")) {
+			throw new IllegalArgumentException(String.format("ImageScreen: %s is neither .png nor .gif", path));
+		}
+	}
+
+	@Override
+	public FrameBuffer getFrameBuffer() {
+		return frameBuffer;
+	}
+
+	@Override
+	public boolean isRealtime() {
+		return false;
+	}
+
+	@Override
+	public void present() throws IOException {
+		if (numbered) {
+			Path frame = path.resolveSibling(String.format(path.getFileName().toString(), frames));
+			ImageIO.write(frameBuffer.getImage(), "png", frame.toFile());
+			frames++;
+			return;
+		}
+		flush();
+		pending = frameBuffer.copyImage();
+		pendingDelay = 0;
+	}
+
+	@Override
+	public void pause(long millis) {
+		pendingDelay += millis;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (numbered) {
+			return;
+		}
+		if (pending == null) {
+			pending = frameBuffer.copyImage();
+		}
+		if (!animated) {
+			ImageIO.write(pending, "png", path.toFile());
+			pending = null;
+			return;
+		}
+		flush();
+		if (gifWriter != null) {
+			gifWriter.endWriteSequence();
+			gifWriter.dispose();
+			output.close();
+			gifWriter = null;
+		}
+	}
+
+	/*
+	================
+	=
+	= flush
+	=
+	= Appends the pending frame to the GIF, the first frame opens the file
+	= and makes the animation loop
+	================
+	*/
+
+	private void flush() throws IOException {
+		if (!animated || pending == null) {
+			return;
+		}
+		if (gifWriter == null) {
+			gifWriter = ImageIO.getImageWritersByFormatName("gif").next();
+			Files.deleteIfExists(path);		// the stream overwrites but does not truncate
+			output = ImageIO.createImageOutputStream(path.toFile());
+			gifWriter.setOutput(output);
+			gifWriter.prepareWriteSequence(null);
+		}
+
+		IIOMetadata metadata = gifWriter.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(pending), null);
+		String format = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+		IIOMetadataNode control = child(root, "GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("delayTime", Long.toString(Math.max(pendingDelay, MIN_DELAY) / 10));
+		control.setAttribute("transparentColorIndex", "0");
+
+		if (frames == 0) {
+			IIOMetadataNode extensions = child(root, "ApplicationExtensions");
+			IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+			loop.setAttribute("applicationID", "NETSCAPE");
+			loop.setAttribute("authenticationCode", "2.0");
+			loop.setUserObject(new byte[] { 1, 0, 0 });		// loop forever
+			extensions.appendChild(loop);
+		}
+
+		metadata.setFromTree(format, root);
+		gifWriter.writeToSequence(new IIOImage(pending, null, metadata), null);
+		frames++;
+		pending = null;
+	}
+
+	private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+		for (int i = 0; i < node.getLength(); i++) {
+			if (node.item(i).getNodeName().equals(name)) {
+				return (IIOMetadataNode) node.item(i);
+			}
+		}
+		IIOMetadataNode child = new IIOMetadataNode(name);
+		node.appendChild(child);
+		return child;
+	}
+}
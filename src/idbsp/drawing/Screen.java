@@ -0,0 +1,37 @@
+package idbsp.drawing;
+
+import java.io.IOException;
+
+/**
+ * Screen
+ *
+ * Where the frames of a FrameBuffer go: a window on the display (Drawing)
+ * or image files (ImageScreen).
+ *
+ */
+public interface Screen {
+
+	FrameBuffer getFrameBuffer();
+
+	/**
+	 * True if frames are seen as they are presented, so a FrameScheduler
+	 * has to pace them.
+	 */
+	boolean isRealtime();
+
+	/**
+	 * Shows the current contents of the frame buffer as a frame.
+	 */
+	void present() throws IOException;
+
+	/**
+	 * Keeps the last frame on the screen for millis. A window waits, an
+	 * animation makes the frame last that long.
+	 */
+	void pause(long millis);
+
+	/**
+	 * Ends the frames. A window stays open until a key is pressed.
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,41 @@
+package idbsp.logic;
+
+import java.util.Arrays;
+
+/**
+ * AxisFirstSplit
+ *
+ * Grades the horizontal and vertical lines of the list first and takes the
+ * best of them if any partitions the list, the sloping lines only
+ * otherwise. Axis parallel divlines keep the cuts on whole coordinates and
+ * make the side tests of the engine cheap.
+ *
+ */
+public class AxisFirstSplit implements SplitStrategy {
+
+	@Override
+	public String getName() {
+		return "axis";
+	}
+
+	@Override
+	public int[] candidates(int pass, int[] lines_i, SegmentStore store) {
+		if (pass > 1) {
+			return null;
+		}
+		double[] x1 = store.x1(), y1 = store.y1(), x2 = store.x2(), y2 = store.y2();
+		int[] candidates = new int[lines_i.length];
+		int count = 0;
+		for (int i = 0; i < lines_i.length; i++) {
+			int line = lines_i[i];
+			boolean axis = (x1[line] == x2[line] || y1[line] == y2[line]);
+			if (axis == (pass == 0)) {
+				candidates[count++] = i;
+			}
+		}
+		if (pass == 1 && count == 0) {
+			return null;
+		}
+		return Arrays.copyOf(candidates, count);
+	}
+}
@@ -0,0 +1,174 @@
+package idbsp.logic;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import idbsp.types.bspnode_t;
+
+/**
+ * BatchBuilder
+ *
+ * Builds all maps of a directory, or all maps matching a glob, on a fixed
+ * pool of workers. Every map gets its own loader and partitioner. The built
+ * maps go into one WAD in the order of their file names, with a summary
+ * line per map.
+ *
+ */
+public class BatchBuilder {
+
+	private static class Result {
+		Path path;
+		DoomMap doomMap;
+		bspnode_t node;
+		PartitionMetrics metrics;
+		PointLocator.Placement[] placements;
+		int segments, cuts, nodes;
+		long nanos;
+	}
+
+	private final CommandLineArguments arguments;
+	private BspCache cache;
+
+
+	public BatchBuilder(CommandLineArguments arguments) {
+		this.arguments = arguments;
+	}
+
+	public void build() throws Exception {
+		List<Path> maps = findMaps(arguments.getInmapname());
+		if (maps.isEmpty()) {
+			throw new IllegalArgumentException(String.format("BatchBuilder: no maps found for %s", arguments.getInmapname()));
+		}
+		if (arguments.getCachename() != null) {
+			cache = new BspCache(Paths.get(arguments.getCachename()), arguments.getCacheSize());
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(arguments.getThreads(), maps.size()));
+		try {
+			List<Future<Result>> results = new ArrayList<>();
+			for (Path path : maps) {
+				results.add(workers.submit(() -> buildMap(path)));
+			}
+
+			long start = System.nanoTime();
+			int segments = 0, cuts = 0, nodes = 0;
+			StringBuilder json = new StringBuilder("{");
+			try (WadWriter wadWriter = new WadWriter(Paths.get(arguments.getOutmapname()))) {
+				wadWriter.setReject(arguments.isReject());
+				for (Future<Result> future : results) {
+					Result result = get(future);
+					wadWriter.addMap(WadWriter.mapName(result.path), result.doomMap, result.node);
+					System.out.println(String.format("%-10s %7d segments %6d cuts %6d nodes %9.1f ms",
+							WadWriter.mapName(result.path), result.segments, result.cuts, result.nodes, result.nanos / 1e6));
+					if (result.placements != null) {
+						PointLocator.report(System.out, WadWriter.mapName(result.path), result.doomMap.getThingStore(), result.placements);
+					}
+					segments += result.segments;
+					cuts += result.cuts;
+					nodes += result.nodes;
+					json.append(String.format("%s\n\"%s\": %s", (json.length() > 1 ? "," : ""), WadWriter.mapName(result.path), result.metrics.toJson().trim()));
+				}
+			}
+			if (arguments.getMetricsname() != null) {
+				json.append("\n}\n");
+				Files.write(Paths.get(arguments.getMetricsname()), json.toString().getBytes(Charset.forName("iso-8859-1")));
+			}
+			System.out.println(String.format("%-10s %7d segments %6d cuts %6d nodes %9.1f ms (%d maps, %d threads)",
+					"total", segments, cuts, nodes, (System.nanoTime() - start) / 1e6, maps.size(), arguments.getThreads()));
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	private Result buildMap(Path path) throws Exception {
+		long start = System.nanoTime();
+
+		DoomMapLoader doomMapLoader = new DoomMapLoader();
+		doomMapLoader.setMode(arguments.getLoaderMode());
+		doomMapLoader.setVerbose(false);
+		DoomMap doomMap = doomMapLoader.load(path);
+		long loadNanos = System.nanoTime() - start;
+
+		BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
+		partitioner.setParallel(arguments.isParallel());
+		partitioner.setIndexed(arguments.isIndexed());
+		partitioner.setMemoized(arguments.isMemo());
+		partitioner.setStrategy(arguments.getStrategy());
+		partitioner.setKernel(arguments.getKernel());
+		partitioner.setVerbose(false);
+		partitioner.setCache(cache);
+		partitioner.process(doomMap);
+
+		Result result = new Result();
+		result.path = path;
+		result.doomMap = doomMap;
+		result.node = partitioner.getNode();
+		result.metrics = partitioner.getMetrics();
+		result.metrics.add(PartitionMetrics.Phase.LOAD, loadNanos);
+		result.segments = result.metrics.getSegments();
+		result.cuts = partitioner.getCuts();
+		result.nodes = countNodes(result.node);
+		if (arguments.isCheckThings()) {
+			result.placements = new PointLocator(doomMap, result.node).classifyThings();
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static Result get(Future<Result> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException _ex) {
+			if (_ex.getCause() instanceof Exception) {
+				throw (Exception) _ex.getCause();
+			}
+			throw _ex;
+		}
+	}
+
+	private static int countNodes(bspnode_t node) {
+		if (node.lines_i != null) {
+			return 0;
+		}
+		return 1 + countNodes(node.side[0]) + countNodes(node.side[1]);
+	}
+
+	/**
+	 * The .dwd files of a directory, or the files matching a glob like
+	 * maps/e1m*.dwd, sorted by name.
+	 */
+	public static List<Path> findMaps(String pattern) throws IOException {
+		Path path = Paths.get(pattern);
+		Path dir;
+		String glob;
+		if (Files.isDirectory(path)) {
+			dir = path;
+			glob = "*.dwd";
+		} else {
+			dir = (path.getParent() != null ? path.getParent() : Paths.get("."));
+			glob = path.getFileName().toString();
+		}
+
+		List<Path> maps = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+			for (Path map : stream) {
+				if (Files.isRegularFile(map)) {
+					maps.add(map);
+				}
+			}
+		}
+		Collections.sort(maps);
+		return maps;
+	}
+}
@@ -2,9 +2,19 @@ package idbsp.logic;
 
 import static idbsp.logic.Constants.ML_TWOSIDED;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import idbsp.logic.PartitionMetrics.Phase;
 import idbsp.types.NXPoint;
 import idbsp.types.bbox_t;
 import idbsp.types.bspnode_t;
@@ -20,123 +30,583 @@ import idbsp.types.worldline_t;
  */
 public class BinarySpacePartitioner {
 
-	private List<line_t> segmentsStore = new ArrayList<>();
-	private int cuts = 0;
+	private static final int PARALLEL_MIN_LINES = 64;		// smaller lists are not worth a fork
+	private static final int PARALLEL_MIN_CANDIDATES = 32;	// candidates per split search task
+	private static final int INDEX_MIN_LINES = 64;			// smaller lists are searched without index
+	private static final int SIDE_BLOCK = 32;				// lines counted at once by EvaluateSplit
+	
+	private SegmentStore segmentsStore;
+	private AtomicInteger cuts = new AtomicInteger();
 	private bspnode_t node;
+	private boolean parallel = false;
+	private boolean indexed = false;
+	private boolean verbose = true;
+	private PartitionMetrics metrics = new PartitionMetrics();
+	private BspCache cache;
+	private boolean memoized = false;
+	private SubtreeMemo memo;
+	private SplitStrategy strategy = new ExhaustiveSplit();
+	private GeometryKernel kernel = FloatKernel.create();
+	private final ThreadLocal<byte[]> sidesScratch = ThreadLocal.withInitial(() -> new byte[SIDE_BLOCK]);
+	private final ThreadLocal<double[]> cutScratch = ThreadLocal.withInitial(() -> new double[3]);
 
 	
-	public List<line_t> getSegmentsStore() {
+	public SegmentStore getSegmentsStore() {
 		return segmentsStore;
 	}
 
 	public int getCuts() {
-		return cuts;
+		return cuts.get();
 	}
 
 	public bspnode_t getNode() {
 		return node;
 	}
 
+	/**
+	 * The metrics of the last process.
+	 */
+	public PartitionMetrics getMetrics() {
+		return metrics;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Builds the front and back subtrees as fork-join tasks and grades the
+	 * splitter candidates of large lists concurrently. The resulting tree is
+	 * identical to the one of the sequential build.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * Grades the splitter candidates of large lists with a SegmentIndex
+	 * instead of testing every line against every candidate. The grades and
+	 * with them the tree are the same as without the index.
+	 */
+	public void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+	}
+
+	public boolean isMemoized() {
+		return memoized;
+	}
+
+	/**
+	 * Remembers the split of every list of whole-numbered segments and
+	 * takes it for lists of the same shape elsewhere in the map, e.g. for
+	 * repeated pillars or door frames. The tree stays the same.
+	 */
+	public void setMemoized(boolean memoized) {
+		this.memoized = memoized;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Takes the tree from the cache if the same lines were built with the
+	 * same settings before, and puts every tree built into it. After a hit
+	 * there is no segments store.
+	 */
+	public void setCache(BspCache cache) {
+		this.cache = cache;
+	}
+
+	public SplitStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * How the line to partition on is chosen, ExhaustiveSplit by default.
+	 */
+	public void setStrategy(SplitStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public GeometryKernel getKernel() {
+		return kernel;
+	}
+
+	/**
+	 * The geometry sides and cuts are decided with, FloatKernel by default.
+	 */
+	public void setKernel(GeometryKernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/**
+	 * The settings that change the tree, part of the cache key. Parallel,
+	 * indexed and memoized builds give the same tree as the plain one.
+	 */
+	public String getSettings() {
+		return strategy.getName() + "/" + kernel.getName();
+	}
+
 	public void process(DoomMap doomMap) {
+		long start = System.nanoTime();
+		metrics = new PartitionMetrics();
+		cuts.set(0);
+		
+		String key = null;
+		if (cache != null) {
+			key = cache.key(doomMap, getSettings());
+			if (processCached(doomMap, key, start)) {
+				return;
+			}
+		}
+		
 		makeSegments(doomMap);
-		node = processList(segmentsStore);
-		System.out.println(cuts + " cuts");
+		int segments = segmentsStore.size();
+		memo = (memoized ? new SubtreeMemo() : null);
+		if (parallel) {
+			node = ForkJoinPool.commonPool().invoke(new ProcessListTask(segmentsStore.all(), 0));
+		} else {
+			node = processList(segmentsStore.all(), 0);
+		}
+		if (verbose) {
+			System.out.println(cuts + " cuts");
+		}
+		
+		if (key != null) {
+			try {
+				cache.put(key, doomMap, node, cuts.get());
+			} catch (IOException _ex) {
+				System.err.println(String.format("WARNING: can't write tree to cache: %s", _ex));
+			}
+		}
+		
+		metrics.add(Phase.PROCESS, System.nanoTime() - start);
+		metrics.finish(segments, cuts.get());
+		metrics.commitEvents();
+	}
+	
+	private boolean processCached(DoomMap doomMap, String key, long start) {
+		int[] cached = new int[1];
+		try {
+			node = cache.get(key, doomMap, cached);
+		} catch (IOException _ex) {
+			node = null;
+		}
+		if (node == null) {
+			return false;
+		}
+		
+		segmentsStore = null;
+		cuts.set(cached[0]);
+		int segments = 0;
+		for (worldline_t wl : doomMap.getLineStore()) {
+			segments += ((wl.flags & ML_TWOSIDED) == 0 ? 1 : 2);
+		}
+		if (verbose) {
+			System.out.println(segments + " segments");
+			System.out.println(cuts + " cuts (cached)");
+		}
+		
+		metrics.setCacheHit(true);
+		metrics.add(Phase.PROCESS, System.nanoTime() - start);
+		metrics.finish(segments, cuts.get());
+		metrics.commitEvents();
+		return true;
 	}
 	
 	private void makeSegments(DoomMap doomMap) {
+		long start = System.nanoTime();
+		segmentsStore = new SegmentStore(doomMap.getLineStore(), 2 * doomMap.getLineStore().size());
+		
 		for (int i = 0; i < doomMap.getLineStore().size(); i++) {
-			worldline_t wl = doomMap.getLineStore().get(i);
-			
-			line_t li = new line_t();
-			li.p1 = wl.p1;
-			li.p2 = wl.p2;
-			li.linedef = wl;
-			li.side = 0;
-			li.offset = 0;
-			li.grouped = false;
-			
-			segmentsStore.add(li);
-			
-			if ((wl.flags & ML_TWOSIDED) == 0) {
-				continue;
+			addSegments(doomMap.getLineStore().get(i), i);
+		}
+		
+		if (verbose) {
+			System.out.println(segmentsStore.size() + " segments");
+		}
+		metrics.add(Phase.MAKE_SEGMENTS, System.nanoTime() - start);
+
+	}
+	
+	/**
+	 * Adds the front and, if two sided, the back segment of a line.
+	 * Returns the number of segments added.
+	 */
+	private int addSegments(worldline_t wl, int linenum) {
+		segmentsStore.add(wl.p1.x, wl.p1.y, wl.p2.x, wl.p2.y, linenum, 0, 0);
+		
+		if ((wl.flags & ML_TWOSIDED) == 0) {
+			return 1;
+		}
+		
+		segmentsStore.add(wl.p2.x, wl.p2.y, wl.p1.x, wl.p1.y, linenum, 1, 0);
+		return 2;
+	}
+	
+	/*
+	================
+	=
+	= rebuild
+	=
+	= Updates the tree of a map after a few lines were added, changed or
+	= removed. The segments of new and changed lines are routed down the
+	= previous tree, cut where they cross a divline, and only the terminal
+	= nodes they reach or that lose segments are partitioned again. Nodes
+	= left without segments are dropped, all other subtrees are reused as
+	= they are: the previous tree itself is not modified.
+	=
+	= The result is a valid tree, but not the one process would build: the
+	= old divlines stay, whether or not they would still be chosen. After
+	= many edits a full process gives a better tree again.
+	= The segments store and the metrics only cover the rebuilt parts
+	================
+	*/
+	
+	public void rebuild(DoomMap doomMap, bspnode_t previous, LineDiff diff) {
+		long start = System.nanoTime();
+		metrics = new PartitionMetrics();
+		cuts.set(0);
+		
+		List<worldline_t> lineStore = doomMap.getLineStore();
+		Map<worldline_t, Integer> linenums = new IdentityHashMap<>();
+		for (int i = 0; i < lineStore.size(); i++) {
+			linenums.put(lineStore.get(i), i);
+		}
+		
+		Set<worldline_t> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+		stale.addAll(diff.getChanged());
+		stale.addAll(diff.getRemoved());
+		
+		segmentsStore = new SegmentStore(lineStore, 64);
+		memo = (memoized ? new SubtreeMemo() : null);
+		Map<bspnode_t, List<Integer>> pending = new IdentityHashMap<>();
+		int segments = 0;
+		for (List<worldline_t> lines : Arrays.asList(diff.getAdded(), diff.getChanged())) {
+			for (worldline_t wl : lines) {
+				int first = segmentsStore.size();
+				int count = addSegments(wl, lineNum(linenums, wl));
+				for (int i = first; i < first + count; i++) {
+					routeSegment(previous, i, pending);
+				}
+				segments += count;
+			}
+		}
+		metrics.add(Phase.MAKE_SEGMENTS, System.nanoTime() - start);
+		
+		node = updateNode(previous, 0, stale, pending, linenums);
+		if (node == null) {
+			throw new IllegalArgumentException("rebuild: no lines left");
+		}
+		if (verbose) {
+			System.out.println(cuts + " cuts");
+		}
+		
+		metrics.add(Phase.PROCESS, System.nanoTime() - start);
+		metrics.finish(segments, cuts.get());
+		metrics.commitEvents();
+	}
+	
+	private static int lineNum(Map<worldline_t, Integer> linenums, worldline_t wl) {
+		Integer linenum = linenums.get(wl);
+		if (linenum == null) {
+			throw new IllegalArgumentException("rebuild: line not in the map, missing in the diff?");
+		}
+		return linenum;
+	}
+	
+	/**
+	 * Moves a segment down to the terminal nodes it belongs to, cutting it
+	 * where it crosses a divline.
+	 */
+	private void routeSegment(bspnode_t node_p, int line_p, Map<bspnode_t, List<Integer>> pending) {
+		while (node_p.lines_i == null) {
+			divline_t d = node_p.divline;
+			int side = kernel.LineOnSide(segmentsStore.x1()[line_p], segmentsStore.y1()[line_p],
+					segmentsStore.x2()[line_p], segmentsStore.y2()[line_p], d.pt.x, d.pt.y, d.dx, d.dy);
+			metrics.lineOnSideCalls.increment();
+			if (side == -2) {
+				int newline_p = CutLine(line_p, d.pt.x, d.pt.y, d.dx, d.dy);
+				routeSegment(node_p.side[1], newline_p, pending);
+				side = 0;
+			}
+			node_p = node_p.side[side];
+		}
+		pending.computeIfAbsent(node_p, k -> new ArrayList<>()).add(line_p);
+	}
+	
+	/**
+	 * Returns node_p itself if nothing below it changed, a new node with the
+	 * same divline if a subtree changed, or null if no segments are left.
+	 */
+	private bspnode_t updateNode(bspnode_t node_p, int depth, Set<worldline_t> stale,
+			Map<bspnode_t, List<Integer>> pending, Map<worldline_t, Integer> linenums) {
+		
+		if (node_p.lines_i != null) {
+			List<Integer> added = pending.get(node_p);
+			List<line_t> kept = new ArrayList<>(node_p.lines_i.size());
+			for (line_t line : node_p.lines_i) {
+				if (!stale.contains(line.linedef)) {
+					kept.add(line);
+				}
+			}
+			if (added == null && kept.size() == node_p.lines_i.size()) {
+				return node_p;
 			}
 			
-			li = new line_t();
-			li.p1 = wl.p2;
-			li.p2 = wl.p1;
-			li.linedef = wl;
-			li.side = 1;
-			li.offset = 0;
-			li.grouped = false;
-			
-			segmentsStore.add(li);
+			int[] lines_i = new int[kept.size() + (added == null ? 0 : added.size())];
+			int c = 0;
+			for (line_t line : kept) {
+				lines_i[c++] = segmentsStore.add(line.p1.x, line.p1.y, line.p2.x, line.p2.y,
+						lineNum(linenums, line.linedef), line.side, line.offset);
+			}
+			if (added != null) {
+				for (int line_p : added) {
+					lines_i[c++] = line_p;
+				}
+			}
+			return (c == 0 ? null : processList(lines_i, depth));
 		}
 		
-		System.out.println(segmentsStore.size() + " segments");
-
+		bspnode_t front = updateNode(node_p.side[0], depth + 1, stale, pending, linenums);
+		bspnode_t back = updateNode(node_p.side[1], depth + 1, stale, pending, linenums);
+		if (front == node_p.side[0] && back == node_p.side[1]) {
+			return node_p;
+		}
+		if (front == null || back == null) {
+			return (front == null ? back : front);
+		}
+		
+		bspnode_t newnode_p = new bspnode_t();
+		newnode_p.divline = node_p.divline;
+		newnode_p.side = new bspnode_t[] { front, back };
+		newnode_p.bbox = new bbox_t();
+		newnode_p.bbox.x1 = Math.min(front.bbox.x1, back.bbox.x1);
+		newnode_p.bbox.x2 = Math.max(front.bbox.x2, back.bbox.x2);
+		newnode_p.bbox.y1 = Math.min(front.bbox.y1, back.bbox.y1);
+		newnode_p.bbox.y2 = Math.max(front.bbox.y2, back.bbox.y2);
+		metrics.nodes.increment();
+		return newnode_p;
 	}
 	
-	private bspnode_t processList(List<line_t> lines_i) {
+	private bspnode_t processList(int[] lines_i, int depth) {
 		
+		long time = System.nanoTime();
 		bspnode_t node_p = new bspnode_t();
 		node_p.divline = new divline_t();
 		node_p.bbox = computeBBox(lines_i);
+		time = metrics.lap(Phase.COMPUTE_BBOX, time);
 		
 		//
-		// find the best line to partition on 
+		// find the best line to partition on, or take it from the memo
+		// if a list of the same shape was partitioned before
 		//
-		int c = lines_i.size();
-		int grade = Integer.MAX_VALUE;	
-		line_t bestline_p = null;
-		int step = 1; // (c / 40) + 1;		// set this to 1 for an exhaustive search
-		while (grade == Integer.MAX_VALUE) {
-			for (int i = 0 ; i < c ; i += step) {
-				line_t line_p = lines_i.get(i);
-				int v = EvaluateSplit (lines_i, line_p, grade);
-				if (v < grade) {
-					grade = v;
-					bestline_p = line_p;
-				}
+		int c = lines_i.length;
+		SubtreeMemo.Key memokey = null;
+		int bestindex = SubtreeMemo.UNKNOWN;
+		if (memo != null) {
+			memokey = memo.key(segmentsStore, lines_i, node_p.bbox);
+			if (memokey != null) {
+				bestindex = memo.get(memokey);
+				(bestindex == SubtreeMemo.UNKNOWN ? metrics.memoMisses : metrics.memoHits).increment();
 			}
-			
-			if (grade == Integer.MAX_VALUE) {
-				if (step > 1) {	// possible to get here with non convex area if BSPSLIDE specials caused rejections
-					step = 1;
-					continue;
-				}
-				node_p.lines_i = lines_i;
-				return node_p;
+			time = metrics.lap(Phase.MEMO, time);
+		}
+		if (bestindex == SubtreeMemo.UNKNOWN) {
+			bestindex = findSplit(lines_i);
+			if (memokey != null) {
+				memo.put(memokey, bestindex);
 			}
-		}		
+			time = System.nanoTime();
+		}
 		
 		//
 		// if none of the lines should be split, the remaining lines
 		// are convex, and form a terminal node
 		//
+		if (bestindex < 0) {
+			node_p.lines_i = segmentsStore.toLines(lines_i);
+			metrics.lap(Phase.MAKE_LEAVES, time);
+			metrics.leaf(depth, c);
+			return node_p;
+		}
+		int bestline_p = lines_i[bestindex];
 
 		//
 		// divide the line list into two nodes along the best split line
 		//
 		node_p.divline = DivlineFromWorldline(bestline_p);
 
-		List<line_t> frontlist_i = new ArrayList<>();
-		List<line_t> backlist_i = new ArrayList<>();
+		int[] frontlist_i = new int[c];
+		int[] backlist_i = new int[c];
 		
-		ExecuteSplit (lines_i, bestline_p, frontlist_i, backlist_i);
+		long counts = ExecuteSplit (lines_i, bestline_p, frontlist_i, backlist_i);
+		frontlist_i = Arrays.copyOf(frontlist_i, (int) (counts >>> 32));
+		backlist_i = Arrays.copyOf(backlist_i, (int) counts);
+		metrics.lap(Phase.EXECUTE_SPLIT, time);
+		metrics.nodes.increment();
 
 		//
 		// recursively divide the lists
 		//
 		node_p.side = new bspnode_t[2];
-		node_p.side[0] = processList(frontlist_i);
-		node_p.side[1] = processList(backlist_i);
+		if (parallel && frontlist_i.length >= PARALLEL_MIN_LINES && backlist_i.length >= PARALLEL_MIN_LINES) {
+			ProcessListTask front = new ProcessListTask(frontlist_i, depth + 1);
+			front.fork();
+			node_p.side[1] = processList(backlist_i, depth + 1);
+			node_p.side[0] = front.join();
+		} else {
+			node_p.side[0] = processList(frontlist_i, depth + 1);
+			node_p.side[1] = processList(backlist_i, depth + 1);
+		}
 			
 		return node_p;
 		
 	}
 	
+	/*
+	================
+	=
+	= findSplit
+	=
+	= Returns the index of the best line to partition on, -1 if none of the
+	= lines divides the others
+	================
+	*/
+	
+	private int findSplit(int[] lines_i) {
+		long time = System.nanoTime();
+		int c = lines_i.length;
+		SegmentIndex index = null;
+		if (indexed && c >= INDEX_MIN_LINES) {
+			index = new SegmentIndex(segmentsStore, lines_i, strategy, kernel, metrics.lineOnSideCalls);
+			time = metrics.lap(Phase.BUILD_INDEX, time);
+		}
+		
+		for (int pass = 0; ; pass++) {
+			int[] candidates = strategy.candidates(pass, lines_i, segmentsStore);
+			if (candidates == null) {
+				metrics.lap(Phase.EVALUATE_SPLIT, time);
+				return -1;
+			}
+			long best;
+			if (parallel && candidates.length >= 2 * PARALLEL_MIN_CANDIDATES) {
+				best = new SplitSearchTask(lines_i, index, candidates, 0, candidates.length, new AtomicInteger(Integer.MAX_VALUE)).invoke();
+			} else {
+				best = searchSplit(lines_i, index, candidates, 0, candidates.length, null);
+			}
+			if (best != Long.MAX_VALUE) {
+				metrics.lap(Phase.EVALUATE_SPLIT, time);
+				return (int) best;
+			}
+		}
+	}
+	
+	/*
+	================
+	=
+	= searchSplit
+	=
+	= Grades the candidates first to last - 1, candidate k being the line at
+	= index candidates[k]. Returns the best grade in the upper and its line index
+	= in the lower half of a long, so the minimum of two results is the better
+	= line, or the first one of two equally graded lines. Long.MAX_VALUE
+	= if none of the candidates partitions the list.
+	= A shared bound lets concurrent searches stop each other early, lines
+	= graded the same as the bound are still fully evaluated
+	================
+	*/
+
+	private long searchSplit(int[] lines_i, SegmentIndex index, int[] candidates, int first, int last, AtomicInteger bound) {
+		int grade = Integer.MAX_VALUE;
+		int bestindex = -1;
+		int earlyexit = 0, notpartitioning = 0;
+		for (int k = first; k < last; k++) {
+			int i = candidates[k];
+			int worstgrade = (bound == null ? grade : Math.min(grade, bound.get()));
+			int line_p = lines_i[i];
+			int v = (index == null ? EvaluateSplit (lines_i, line_p, worstgrade)
+					: index.evaluate(line_p, worstgrade));
+			if (v == Integer.MAX_VALUE) {
+				notpartitioning++;
+			} else if (v > worstgrade) {
+				earlyexit++;
+			}
+			if (v < grade && v <= worstgrade) {
+				grade = v;
+				bestindex = i;
+				if (bound != null) {
+					bound.accumulateAndGet(v, Math::min);
+				}
+			}
+		}
+		metrics.candidatesEvaluated.add(last - first);
+		metrics.candidatesEarlyExit.add(earlyexit);
+		metrics.candidatesNotPartitioning.add(notpartitioning);
+		
+		if (bestindex < 0) {
+			return Long.MAX_VALUE;
+		}
+		return ((long) grade << 32) | bestindex;
+	}
+	
+	private class SplitSearchTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] lines_i;
+		private final SegmentIndex index;
+		private final int[] candidates;
+		private final int first, last;
+		private final AtomicInteger bound;
+		
+		SplitSearchTask(int[] lines_i, SegmentIndex index, int[] candidates, int first, int last, AtomicInteger bound) {
+			this.lines_i = lines_i;
+			this.index = index;
+			this.candidates = candidates;
+			this.first = first;
+			this.last = last;
+			this.bound = bound;
+		}
+		
+		@Override
+		protected Long compute() {
+			if (last - first <= PARALLEL_MIN_CANDIDATES) {
+				return searchSplit(lines_i, index, candidates, first, last, bound);
+			}
+			int middle = (first + last) >>> 1;
+			SplitSearchTask upper = new SplitSearchTask(lines_i, index, candidates, middle, last, bound);
+			upper.fork();
+			long lower = new SplitSearchTask(lines_i, index, candidates, first, middle, bound).compute();
+			return Math.min(lower, upper.join());
+		}
+	}
 	
-	private bbox_t computeBBox(List<line_t> lines_i) {
+	private class ProcessListTask extends RecursiveTask<bspnode_t> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] lines_i;
+		private final int depth;
+		
+		ProcessListTask(int[] lines_i, int depth) {
+			this.lines_i = lines_i;
+			this.depth = depth;
+		}
+		
+		@Override
+		protected bspnode_t compute() {
+			return processList(lines_i, depth);
+		}
+	}
+	
+	
+	private bbox_t computeBBox(int[] lines_i) {
 		bbox_t bbox = new bbox_t();
 		
 		bbox.x1 = Double.MAX_VALUE;
@@ -144,15 +614,17 @@ public class BinarySpacePartitioner {
 		bbox.y1 = Double.MAX_VALUE;
 		bbox.y2 = -Double.MAX_VALUE;
 		
-		for (line_t line : lines_i) {
-			bbox.x1 = Math.min(bbox.x1, line.p1.x);
-			bbox.x2 = Math.max(bbox.x2, line.p1.x);
-			bbox.x1 = Math.min(bbox.x1, line.p2.x);
-			bbox.x2 = Math.max(bbox.x2, line.p2.x);
-			bbox.y1 = Math.min(bbox.y1, line.p1.y);
-			bbox.y2 = Math.max(bbox.y2, line.p1.y);
-			bbox.y1 = Math.min(bbox.y1, line.p2.y);
-			bbox.y2 = Math.max(bbox.y2, line.p2.y);
+		double[] x1 = segmentsStore.x1(), y1 = segmentsStore.y1();
+		double[] x2 = segmentsStore.x2(), y2 = segmentsStore.y2();
+		for (int line : lines_i) {
+			bbox.x1 = Math.min(bbox.x1, x1[line]);
+			bbox.x2 = Math.max(bbox.x2, x1[line]);
+			bbox.x1 = Math.min(bbox.x1, x2[line]);
+			bbox.x2 = Math.max(bbox.x2, x2[line]);
+			bbox.y1 = Math.min(bbox.y1, y1[line]);
+			bbox.y2 = Math.max(bbox.y2, y1[line]);
+			bbox.y1 = Math.min(bbox.y1, y2[line]);
+			bbox.y2 = Math.max(bbox.y2, y2[line]);
 		}
 		
 		return bbox;
@@ -172,35 +644,36 @@ public class BinarySpacePartitioner {
 	=
 	= The LOWER the returned value, the better.  If the split line does not divide
 	= any of the lines at all, MAXINT will be returned
+	=
+	= The lines are counted SIDE_BLOCK at a time. The grade only grows with
+	= the counts, so checking it after each block stops on the same lines
+	= as checking it after each line. The split line itself is colinear and
+	= goes the same direction, it is always counted in front
 	================
 	*/
 
-	private int EvaluateSplit(List<line_t> lines_i, line_t spliton, int worstgrade) {
+	int EvaluateSplit(int[] lines_i, int spliton, int worstgrade) {
 		int frontcount = 0, backcount = 0, grade = 0;
-		divline_t divline = DivlineFromWorldline(spliton);
+		double[] x1 = segmentsStore.x1(), y1 = segmentsStore.y1();
+		double[] x2 = segmentsStore.x2(), y2 = segmentsStore.y2();
+		double lx = x1[spliton], ly = y1[spliton];
+		double ldx = x2[spliton] - lx, ldy = y2[spliton] - ly;
+		int calls = 0;
 		
-		for (int i = 0 ; i < lines_i.size(); i++) {
-			line_t line_p = lines_i.get(i);
-			int side = (line_p == spliton ? 0 : Utils.LineOnSide(line_p, divline));
-			switch (side) {
-			case 0:
-				frontcount++;
-				break;
-			case 1:
-				backcount++;
-				break;
-			case -2:
-				frontcount++;
-				backcount++;
-				break;
-			}
+		for (int from = 0 ; from < lines_i.length; from += SIDE_BLOCK) {
+			int to = Math.min(from + SIDE_BLOCK, lines_i.length);
+			long counts = kernel.LinesOnSide(x1, y1, x2, y2, lines_i, from, to, lx, ly, ldx, ldy, null);
+			frontcount += (int) (counts >>> 32);
+			backcount += (int) counts;
+			calls += to - from;
 			
-			int maxl = Math.max(frontcount, backcount);
-			int newl = (frontcount + backcount) - lines_i.size();  // measure for cuts (bad)
-			grade = maxl + newl * 8;
-			if (grade > worstgrade)
+			grade = strategy.grade(frontcount, backcount, lines_i.length);
+			if (grade > worstgrade) {
+				metrics.lineOnSideCalls.add(calls);
 				return grade;		// might as well stop now
+			}
 		}
+		metrics.lineOnSideCalls.add(calls);
 
 		if (frontcount == 0 || backcount == 0) {
 			return Integer.MAX_VALUE;			// line does not partition at all
@@ -209,11 +682,15 @@ public class BinarySpacePartitioner {
 		return grade;
 	}
 
-	private divline_t DivlineFromWorldline(line_t w) {
+	private divline_t DivlineFromWorldline(int w) {
+		double[] x1 = segmentsStore.x1(), y1 = segmentsStore.y1();
+		double[] x2 = segmentsStore.x2(), y2 = segmentsStore.y2();
 		divline_t d = new divline_t();
-		d.pt = w.p1;
-		d.dx = w.p2.x - w.p1.x;
-		d.dy = w.p2.y - w.p1.y;
+		d.pt = new NXPoint();
+		d.pt.x = x1[w];
+		d.pt.y = y1[w];
+		d.dx = x2[w] - x1[w];
+		d.dy = y2[w] - y1[w];
 		return d;
 	}
 	
@@ -225,50 +702,48 @@ public class BinarySpacePartitioner {
 	= ExecuteSplit
 	=
 	= Actually splits the line list as EvaluateLines predicted
+	= Returns the number of front lines in the upper and the number of
+	= back lines in the lower half of a long
+	=
+	= All lines are classified before the first one is cut, into a buffer
+	= of the thread that is kept for the next split
 	================
 	*/
 
-	private void ExecuteSplit(List<line_t> lines_i, line_t spliton, List<line_t> frontlist_i, List<line_t> backlist_i) {
-		divline_t divline = DivlineFromWorldline(spliton);
+	long ExecuteSplit(int[] lines_i, int spliton, int[] frontlist_i, int[] backlist_i) {
+		double[] x1 = segmentsStore.x1(), y1 = segmentsStore.y1();
+		double[] x2 = segmentsStore.x2(), y2 = segmentsStore.y2();
+		double lx = x1[spliton], ly = y1[spliton];
+		double ldx = x2[spliton] - lx, ldy = y2[spliton] - ly;
+		int frontcount = 0, backcount = 0;
+		byte[] sides = sidesScratch.get();
+		if (sides.length < lines_i.length) {
+			sides = new byte[Math.max(lines_i.length, 2 * sides.length)];
+			sidesScratch.set(sides);
+		}
+		kernel.LinesOnSide(x1, y1, x2, y2, lines_i, 0, lines_i.length, lx, ly, ldx, ldy, sides);
 
-		for (int i = 0 ; i < lines_i.size() ; i++) {
-			line_t line_p = lines_i.get(i);
-			int side = (line_p == spliton ? 0 : Utils.LineOnSide(line_p, divline));
-			switch (side) {
+		for (int i = 0 ; i < lines_i.length ; i++) {
+			int line_p = lines_i[i];
+			switch (sides[i]) {
 			case 0:
-				frontlist_i.add(line_p);
+				frontlist_i[frontcount++] = line_p;
 				break;
 			case 1:
-				backlist_i.add(line_p);
+				backlist_i[backcount++] = line_p;
 				break;
 			case -2:
-				line_t newline_p = CutLine(line_p, divline);
-				frontlist_i.add(line_p);
-				backlist_i.add(newline_p);
+				int newline_p = CutLine(line_p, lx, ly, ldx, ldy);
+				frontlist_i[frontcount++] = line_p;
+				backlist_i[backcount++] = newline_p;
 				break;
 			default:
 				throw new IllegalArgumentException("ExecuteSplit: bad side");
 			}
 		}
-	}
-
-	private static double round (double x) {
-		if (x > 0) {
-			if (x - (int) x < 0.1) {
-				return (int) x;
-			} else if (x - (int) x > 0.9) {
-				return (int) x + 1;
-			} else {
-				return x;
-			}
-		}
+		metrics.lineOnSideCalls.add(lines_i.length);
 		
-		if ((int) x - x < 0.1) {
-			return (int) x;
-		} else if ((int) x - x > 0.9) {
-			return  (int) x - 1;
-		}
-		return x;
+		return ((long) frontcount << 32) | backcount;
 	}
 
 	/*
@@ -276,69 +751,42 @@ public class BinarySpacePartitioner {
 	=
 	= CutLine
 	=
-	= Truncates the given worldline to the front side of the divline
-	= and returns the cut off back side in a newly allocated worldline
+	= Truncates the given segment to the front side of the divline
+	= and returns the cut off back side as a newly added segment. The cut
+	= point is computed into a buffer of the thread
 	==================
 	*/
 
-	private line_t CutLine (line_t wl, divline_t bl) {
+	private int CutLine (int wl, double lx, double ly, double ldx, double ldy) {
 		int			side;
-		line_t		new_p = new line_t();
-		double		frac;
-		NXPoint		intr = new NXPoint();
+		double[]	cut = cutScratch.get();
+		double		intrx, intry;
 		int			offset;
 		
-		cuts++;
-		divline_t wld = DivlineFromWorldline(wl);
+		cuts.incrementAndGet();
 		
-		new_p.p1 = wl.p1; 
-		new_p.p2 = wl.p2; 
-		new_p.linedef = wl.linedef; 
-		new_p.side = wl.side; 
-		new_p.offset = wl.offset; 
-		new_p.grouped = wl.grouped; 
+		double x1 = segmentsStore.x1()[wl], y1 = segmentsStore.y1()[wl];
+		double x2 = segmentsStore.x2()[wl], y2 = segmentsStore.y2()[wl];
+		int linedef = segmentsStore.linedef()[wl];
+		int lineside = segmentsStore.side()[wl];
+		int lineoffset = segmentsStore.offset()[wl];
+		double dx = x2 - x1, dy = y2 - y1;
 		
-		frac = InterceptVector (wld, bl);
-		intr.x = wld.pt.x + round(wld.dx * frac);
-		intr.y = wld.pt.y + round(wld.dy * frac);
+		kernel.intercept(x1, y1, x2, y2, lx, ly, ldx, ldy, cut);
+		intrx = cut[0];
+		intry = cut[1];
 		
-		offset = (int) (wl.offset + round(frac * Math.sqrt(wld.dx * wld.dx + wld.dy * wld.dy)));
-		side = Utils.PointOnSide (wl.p1, bl);
+		offset = (int) (lineoffset + FloatKernel.round(cut[2] * Math.sqrt(dx * dx + dy * dy)));
+		side = kernel.PointOnSide (x1, y1, lx, ly, ldx, ldy);
 		if (side == 0) {
 			// line starts on front side
-			wl.p2 = intr;
-			new_p.p1 = intr;
-			new_p.offset = offset;
-		} else {	
-			// line starts on back side
-			wl.p1 = intr;
-			wl.offset = offset;
-			new_p.p2 = intr;
+			segmentsStore.set(wl, x1, y1, intrx, intry, lineoffset);
+			return segmentsStore.add(intrx, intry, x2, y2, linedef, lineside, offset);
 		}
 		
-		return new_p;
-	}
-
-	/*
-	===============
-	=
-	= InterceptVector
-	=
-	= Returns the fractional intercept point along first vector
-	===============
-	*/
-
-	private static double InterceptVector (divline_t v2, divline_t v1) {
-		double den = v1.dy * v2.dx - v1.dx * v2.dy;
-		if (den == 0) {
-			throw new IllegalArgumentException("InterceptVector: parallel");
-		}
-		double num = (v1.pt.x - v2.pt.x) * v1.dy + (v2.pt.y - v1.pt.y) * v1.dx;
-		double frac = num / den;
-		if (frac <= 0.0 || frac >= 1.0) {
-			throw new IllegalArgumentException("InterceptVector: intersection outside line");
-		}
-		return frac;
+		// line starts on back side
+		segmentsStore.set(wl, intrx, intry, x2, y2, offset);
+		return segmentsStore.add(x1, y1, intrx, intry, linedef, lineside, lineoffset);
 	}
 
 } 
@@ -0,0 +1,217 @@
+package idbsp.logic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import idbsp.types.worldline_t;
+
+/**
+ * Blockmap
+ *
+ * The lines of a map sorted into a grid of BLOCK_SIZE square blocks, which
+ * Doom uses to find the lines near a moving thing. A line is listed in
+ * every block it passes through or touches.
+ *
+ * The blocks of a line are found by a sweep over the rows of the grid the
+ * line spans: the part of the line inside a row gives the columns it
+ * covers in that row. Every line only visits its own blocks, instead of
+ * every line being tested against every block.
+ *
+ * The lines of block b are lines[start[b]] to lines[start[b + 1] - 1], in
+ * increasing order.
+ *
+ */
+public class Blockmap {
+
+	public static final int BLOCK_SIZE = 128;
+
+	private static final int BORDER = 8;			// between the lines and the edge of the grid
+	private static final double EPSILON = 1e-6;	// lines on a block edge are in the blocks on both sides
+
+	private int originX, originY;
+	private int columns, rows;
+	private int[] start;
+	private int[] lines;
+
+
+	/*
+	================
+	=
+	= build
+	=
+	= Counts the blocks of each line in a first sweep, then fills them in a
+	= second one
+	================
+	*/
+
+	public static Blockmap build(List<worldline_t> lineStore) {
+		Blockmap blockmap = new Blockmap();
+		if (lineStore.isEmpty()) {
+			blockmap.start = new int[1];
+			blockmap.lines = new int[0];
+			return blockmap;
+		}
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (worldline_t line : lineStore) {
+			minX = Math.min(minX, Math.min(line.p1.x, line.p2.x));
+			minY = Math.min(minY, Math.min(line.p1.y, line.p2.y));
+			maxX = Math.max(maxX, Math.max(line.p1.x, line.p2.x));
+			maxY = Math.max(maxY, Math.max(line.p1.y, line.p2.y));
+		}
+		blockmap.originX = (int) Math.floor(minX) - BORDER;
+		blockmap.originY = (int) Math.floor(minY) - BORDER;
+		blockmap.columns = (int) ((maxX - blockmap.originX) / BLOCK_SIZE) + 1;
+		blockmap.rows = (int) ((maxY - blockmap.originY) / BLOCK_SIZE) + 1;
+
+		int blocks = blockmap.columns * blockmap.rows;
+		int[] counts = new int[blocks + 1];
+		for (worldline_t line : lineStore) {
+			blockmap.sweep(line, -1, counts, null);
+		}
+
+		blockmap.start = new int[blocks + 1];
+		for (int b = 0; b < blocks; b++) {
+			blockmap.start[b + 1] = blockmap.start[b] + counts[b];
+		}
+		blockmap.lines = new int[blockmap.start[blocks]];
+
+		int[] fill = Arrays.copyOf(blockmap.start, blocks);
+		for (int i = 0; i < lineStore.size(); i++) {
+			blockmap.sweep(lineStore.get(i), i, fill, blockmap.lines);
+		}
+		return blockmap;
+	}
+
+	/*
+	================
+	=
+	= sweep
+	=
+	= Visits the blocks of a line row by row. Without lines, counts the
+	= blocks in counts, else appends linenum at the positions in counts
+	================
+	*/
+
+	private void sweep(worldline_t line, int linenum, int[] counts, int[] lines) {
+		double x1 = line.p1.x - originX, y1 = line.p1.y - originY;
+		double x2 = line.p2.x - originX, y2 = line.p2.y - originY;
+		if (y1 > y2) {
+			double t = x1; x1 = x2; x2 = t;
+			t = y1; y1 = y2; y2 = t;
+		}
+
+		int firstRow = Math.max(0, (int) Math.floor((y1 - EPSILON) / BLOCK_SIZE));
+		int lastRow = Math.min(rows - 1, (int) Math.floor((y2 + EPSILON) / BLOCK_SIZE));
+		for (int row = firstRow; row <= lastRow; row++) {
+			// the part of the line inside the row
+			double xa, xb;
+			if (y2 - y1 < EPSILON) {
+				xa = x1;
+				xb = x2;
+			} else {
+				double ya = Math.max(y1, row * BLOCK_SIZE);
+				double yb = Math.min(y2, (row + 1) * BLOCK_SIZE);
+				xa = x1 + (x2 - x1) * (ya - y1) / (y2 - y1);
+				xb = x1 + (x2 - x1) * (yb - y1) / (y2 - y1);
+			}
+
+			int firstColumn = Math.max(0, (int) Math.floor((Math.min(xa, xb) - EPSILON) / BLOCK_SIZE));
+			int lastColumn = Math.min(columns - 1, (int) Math.floor((Math.max(xa, xb) + EPSILON) / BLOCK_SIZE));
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int block = row * columns + column;
+				if (lines != null) {
+					lines[counts[block]] = linenum;
+				}
+				counts[block]++;
+			}
+		}
+	}
+
+	public int getOriginX() {
+		return originX;
+	}
+
+	public int getOriginY() {
+		return originY;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * The number of lines in a block.
+	 */
+	public int getCount(int column, int row) {
+		int block = row * columns + column;
+		return start[block + 1] - start[block];
+	}
+
+	/**
+	 * The k-th line of a block, as index into the line store.
+	 */
+	public int getLine(int column, int row, int k) {
+		return lines[start[row * columns + column] + k];
+	}
+
+	/*
+	================
+	=
+	= toLump
+	=
+	= The BLOCKMAP lump as shorts: origin and size of the grid, an offset
+	= per block from the start of the lump, then the block lists, each a 0,
+	= the lines and a -1. Blocks with the same lines share a list
+	================
+	*/
+
+	public short[] toLump() {
+		int blocks = columns * rows;
+		int[] offsets = new int[blocks];
+		boolean[] first = new boolean[blocks];	// the block whose list the others share
+		Map<List<Integer>, Integer> shared = new HashMap<>();
+		int size = 4 + blocks;
+		for (int b = 0; b < blocks; b++) {
+			Integer[] key = new Integer[start[b + 1] - start[b]];
+			for (int k = 0; k < key.length; k++) {
+				key[k] = lines[start[b] + k];
+			}
+			Integer offset = shared.putIfAbsent(Arrays.asList(key), size);
+			if (offset == null) {
+				offset = size;
+				first[b] = true;
+				size += key.length + 2;
+			}
+			offsets[b] = offset;
+		}
+		if (size > 0x10000) {
+			throw new IllegalArgumentException(String.format("Blockmap: too large (%d shorts)", size));
+		}
+
+		short[] lump = new short[size];
+		lump[0] = (short) originX;
+		lump[1] = (short) originY;
+		lump[2] = (short) columns;
+		lump[3] = (short) rows;
+		for (int b = 0; b < blocks; b++) {
+			lump[4 + b] = (short) offsets[b];
+			if (!first[b]) {
+				continue;
+			}
+			int k = offsets[b];
+			lump[k++] = 0;
+			for (int i = start[b]; i < start[b + 1]; i++) {
+				lump[k++] = (short) lines[i];
+			}
+			lump[k] = -1;
+		}
+		return lump;
+	}
+}
@@ -0,0 +1,312 @@
+package idbsp.logic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import idbsp.types.NXPoint;
+import idbsp.types.bbox_t;
+import idbsp.types.bspnode_t;
+import idbsp.types.divline_t;
+import idbsp.types.line_t;
+import idbsp.types.worldline_t;
+
+/**
+ * BspCache
+ *
+ * Built trees on disk, one file per map and builder settings, named after
+ * the SHA-256 of the lines of the map and the settings. Only what the tree
+ * depends on goes into the hash: coordinates, flags and order of the lines,
+ * not textures, sectors or things, which are taken from the map when the
+ * WAD is written.
+ *
+ * A hit maps the file and decodes the tree from it. The files are kept
+ * below a size bound by deleting the least recently used ones, a hit
+ * counts as use.
+ *
+ */
+public class BspCache {
+
+	private static final int MAGIC = 0x49444254;			// "IDBT"
+	private static final int FORMAT_VERSION = 1;
+	private static final String SUFFIX = ".bsp";
+
+	private static final byte NODE = 0;
+	private static final byte LEAF = 1;
+
+	private final Path dir;
+	private final long maxBytes;
+
+
+	public BspCache(Path dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(dir);
+		evict();
+	}
+
+	/*
+	================
+	=
+	= key
+	=
+	= The hex SHA-256 of the lines of the map and of the settings that
+	= change the tree
+	================
+	*/
+
+	public String key(DoomMap doomMap, String settings) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException _ex) {
+			throw new IllegalStateException(_ex);
+		}
+
+		digest.update(String.format("%d %s\n", FORMAT_VERSION, settings).getBytes());
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		for (worldline_t wl : doomMap.getLineStore()) {
+			if (buffer.remaining() < 36) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			buffer.putDouble(wl.p1.x);
+			buffer.putDouble(wl.p1.y);
+			buffer.putDouble(wl.p2.x);
+			buffer.putDouble(wl.p2.y);
+			buffer.putInt(wl.flags);
+		}
+		buffer.flip();
+		digest.update(buffer);
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * The cached tree for key, with its lines referring to the lines of
+	 * doomMap, or null. cuts[0] is set to the number of cuts of the tree.
+	 */
+	public bspnode_t get(String key, DoomMap doomMap, int[] cuts) throws IOException {
+		Path path = dir.resolve(key + SUFFIX);
+		if (!Files.exists(path)) {
+			return null;
+		}
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException _ex) {
+			return null;		// evicted by someone else in the meantime
+		}
+
+		if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+				|| buffer.getInt() != doomMap.getLineStore().size()) {
+			return null;
+		}
+		cuts[0] = buffer.getInt();
+		bspnode_t node;
+		try {
+			node = readNode(buffer, doomMap.getLineStore());
+		} catch (RuntimeException _ex) {
+			return null;		// damaged file, build again
+		}
+
+		try {
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException _ex) {
+			//
+		}
+		return node;
+	}
+
+	/**
+	 * Writes a tree for key and evicts old trees if the cache grew too
+	 * large. The file is written under a temporary name and then renamed,
+	 * so concurrent builds never see half a file.
+	 */
+	public void put(String key, DoomMap doomMap, bspnode_t node, int cuts) throws IOException {
+		List<worldline_t> lineStore = doomMap.getLineStore();
+		Map<worldline_t, Integer> linenums = new IdentityHashMap<>();
+		for (int i = 0; i < lineStore.size(); i++) {
+			linenums.put(lineStore.get(i), i);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(16 + treeSize(node));
+		buffer.putInt(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putInt(lineStore.size());
+		buffer.putInt(cuts);
+		writeNode(buffer, node, linenums);
+		buffer.flip();
+
+		Path temp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temp, dir.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		evict();
+	}
+
+	/*
+	================
+	=
+	= evict
+	=
+	= Deletes the least recently used trees until the cache fits into
+	= maxBytes. Files deleted by a concurrent eviction are skipped
+	================
+	*/
+
+	private void evict() throws IOException {
+		List<Path> files = new ArrayList<>();
+		List<FileTime> times = new ArrayList<>();
+		List<Long> sizes = new ArrayList<>();
+		long total = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path path : stream) {
+				try {
+					times.add(Files.getLastModifiedTime(path));
+					sizes.add(Files.size(path));
+				} catch (NoSuchFileException _ex) {
+					continue;
+				}
+				files.add(path);
+				total += sizes.get(sizes.size() - 1);
+			}
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < files.size(); i++) {
+			order.add(i);
+		}
+		order.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+
+		for (int i : order) {
+			if (total <= maxBytes) {
+				break;
+			}
+			Files.deleteIfExists(files.get(i));
+			total -= sizes.get(i);
+		}
+	}
+
+	/*
+	================
+	=
+	= Tree format
+	=
+	= Nodes in preorder, front before back:
+	=   node: NODE, bbox x1 x2 y1 y2, divline x y dx dy, front, back
+	=   leaf: LEAF, bbox x1 x2 y1 y2, count, count times
+	=         x1 y1 x2 y2 (double), linedef side offset (int)
+	================
+	*/
+
+	private static int treeSize(bspnode_t node) {
+		if (node.lines_i != null) {
+			return 1 + 4 * 8 + 4 + node.lines_i.size() * (4 * 8 + 3 * 4);
+		}
+		return 1 + 8 * 8 + treeSize(node.side[0]) + treeSize(node.side[1]);
+	}
+
+	private static void writeNode(ByteBuffer buffer, bspnode_t node, Map<worldline_t, Integer> linenums) {
+		buffer.put(node.lines_i != null ? LEAF : NODE);
+		buffer.putDouble(node.bbox.x1);
+		buffer.putDouble(node.bbox.x2);
+		buffer.putDouble(node.bbox.y1);
+		buffer.putDouble(node.bbox.y2);
+
+		if (node.lines_i != null) {
+			buffer.putInt(node.lines_i.size());
+			for (line_t line : node.lines_i) {
+				buffer.putDouble(line.p1.x);
+				buffer.putDouble(line.p1.y);
+				buffer.putDouble(line.p2.x);
+				buffer.putDouble(line.p2.y);
+				buffer.putInt(linenums.get(line.linedef));
+				buffer.putInt(line.side);
+				buffer.putInt(line.offset);
+			}
+			return;
+		}
+
+		buffer.putDouble(node.divline.pt.x);
+		buffer.putDouble(node.divline.pt.y);
+		buffer.putDouble(node.divline.dx);
+		buffer.putDouble(node.divline.dy);
+		writeNode(buffer, node.side[0], linenums);
+		writeNode(buffer, node.side[1], linenums);
+	}
+
+	private static bspnode_t readNode(ByteBuffer buffer, List<worldline_t> lineStore) {
+		bspnode_t node = new bspnode_t();
+		byte tag = buffer.get();
+		node.bbox = new bbox_t();
+		node.bbox.x1 = buffer.getDouble();
+		node.bbox.x2 = buffer.getDouble();
+		node.bbox.y1 = buffer.getDouble();
+		node.bbox.y2 = buffer.getDouble();
+
+		if (tag == LEAF) {
+			int count = buffer.getInt();
+			node.lines_i = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				line_t line = new line_t();
+				line.p1 = new NXPoint();
+				line.p1.x = buffer.getDouble();
+				line.p1.y = buffer.getDouble();
+				line.p2 = new NXPoint();
+				line.p2.x = buffer.getDouble();
+				line.p2.y = buffer.getDouble();
+				line.linedef = lineStore.get(buffer.getInt());
+				line.side = buffer.getInt();
+				line.offset = buffer.getInt();
+				node.lines_i.add(line);
+			}
+			return node;
+		}
+		if (tag != NODE) {
+			throw new IllegalArgumentException("BspCache: bad node");
+		}
+
+		node.divline = new divline_t();
+		node.divline.pt = new NXPoint();
+		node.divline.pt.x = buffer.getDouble();
+		node.divline.pt.y = buffer.getDouble();
+		node.divline.dx = buffer.getDouble();
+		node.divline.dy = buffer.getDouble();
+		node.side = new bspnode_t[2];
+		node.side[0] = readNode(buffer, lineStore);
+		node.side[1] = readNode(buffer, lineStore);
+		return node;
+	}
+}
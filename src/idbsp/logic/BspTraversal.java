@@ -0,0 +1,273 @@
+package idbsp.logic;
+
+import static idbsp.logic.Constants.ML_TWOSIDED;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import idbsp.types.bbox_t;
+import idbsp.types.bspnode_t;
+import idbsp.types.line_t;
+import idbsp.types.sectordef_t;
+
+/**
+ * BspTraversal
+ *
+ * Walks a tree front to back from a viewpoint, the way Doom renders: a
+ * subtree whose bbox is outside the field of view, or only covers screen
+ * columns that are already occluded, is skipped. Segments facing away or
+ * outside the view are dropped, the others are reported to a Visitor with
+ * their leaf. Solid segments, one-sided lines and two-sided lines closed
+ * by their sectors, occlude their columns, as solidsegs does in Doom. The
+ * walk stops when every column is occluded.
+ *
+ * Angles are counterclockwise from the view direction, so the left edge of
+ * the screen is at +fieldOfView / 2.
+ *
+ */
+public class BspTraversal {
+
+	public static final int DEFAULT_COLUMNS = 320;
+	public static final double DEFAULT_FIELD_OF_VIEW = Math.PI / 2;
+
+	public interface Visitor {
+		/**
+		 * A leaf in front to back order with its visible segments.
+		 */
+		void leaf(bspnode_t leaf, List<line_t> visible);
+	}
+
+	private final int columns;
+	private final double clipAngle;
+	private final double focal;
+	private final BitSet solid;
+
+	private double vx, vy, vangle;
+	private int x1, x2;								// columns of the last project
+
+	private int nodesVisited;
+	private int nodesCulled;
+	private int leavesVisited;
+	private int segmentsTested;
+	private int segmentsVisible;
+	private boolean screenFull;
+
+
+	public BspTraversal(int columns, double fieldOfView) {
+		if (columns < 1 || fieldOfView <= 0 || fieldOfView >= Math.PI) {
+			throw new IllegalArgumentException(String.format("BspTraversal: bad view %d columns, %f rad", columns, fieldOfView));
+		}
+		this.columns = columns;
+		this.clipAngle = fieldOfView / 2;
+		this.focal = (columns / 2.0) / Math.tan(clipAngle);
+		this.solid = new BitSet(columns);
+	}
+
+	public BspTraversal() {
+		this(DEFAULT_COLUMNS, DEFAULT_FIELD_OF_VIEW);
+	}
+
+	/**
+	 * Walks the tree from (x, y) looking along angle. The counters are
+	 * those of this walk.
+	 */
+	public void traverse(bspnode_t root, double x, double y, double angle, Visitor visitor) {
+		vx = x;
+		vy = y;
+		vangle = angle;
+		solid.clear();
+		nodesVisited = nodesCulled = leavesVisited = segmentsTested = segmentsVisible = 0;
+		screenFull = false;
+		renderNode(root, visitor);
+	}
+
+	private void renderNode(bspnode_t node, Visitor visitor) {
+		if (screenFull) {
+			return;
+		}
+		if (!checkBBox(node.bbox)) {
+			nodesCulled++;
+			return;
+		}
+		nodesVisited++;
+
+		if (node.lines_i != null) {
+			renderLeaf(node, visitor);
+			return;
+		}
+
+		int side = Utils.PointOnSide(vx, vy, node.divline);
+		if (side == -1) side = 0;
+		renderNode(node.side[side], visitor);
+		renderNode(node.side[side ^ 1], visitor);
+	}
+
+	private void renderLeaf(bspnode_t leaf, Visitor visitor) {
+		leavesVisited++;
+		List<line_t> visible = new ArrayList<>();
+		for (line_t line : leaf.lines_i) {
+			segmentsTested++;
+			if (!project(angle(line.p1.x, line.p1.y), angle(line.p2.x, line.p2.y))) {
+				continue;
+			}
+			if (solid.nextClearBit(x1) >= x2) {
+				continue;						// behind solid segments
+			}
+			visible.add(line);
+			if (isSolid(line)) {
+				solid.set(x1, x2);
+			}
+		}
+		segmentsVisible += visible.size();
+		screenFull = (solid.nextClearBit(0) >= columns);
+		if (visitor != null) {
+			visitor.leaf(leaf, visible);
+		}
+	}
+
+	/*
+	================
+	=
+	= checkBBox
+	=
+	= True if some column the bbox covers is not occluded yet. Seen from
+	= outside, the corners of a box span less than half a turn, so their
+	= angles around the angle of the box center give its extent
+	================
+	*/
+
+	private boolean checkBBox(bbox_t bbox) {
+		if (vx >= bbox.x1 && vx <= bbox.x2 && vy >= bbox.y1 && vy <= bbox.y2) {
+			return true;
+		}
+		double center = angle((bbox.x1 + bbox.x2) / 2, (bbox.y1 + bbox.y2) / 2);
+		double min = 0, max = 0;
+		for (int corner = 0; corner < 4; corner++) {
+			double a = normalize(angle(((corner & 1) == 0 ? bbox.x1 : bbox.x2), ((corner & 2) == 0 ? bbox.y1 : bbox.y2)) - center);
+			min = Math.min(min, a);
+			max = Math.max(max, a);
+		}
+		if (!project(normalize(center + max), normalize(center + min))) {
+			return false;
+		}
+		return solid.nextClearBit(x1) < x2;
+	}
+
+	/*
+	================
+	=
+	= project
+	=
+	= The columns x1 to x2 - 1 between angle1 on the left and angle2 on the
+	= right, clipped to the field of view as in Doom's R_AddLine. False if
+	= the span faces away, is outside the view or narrower than a column
+	================
+	*/
+
+	private boolean project(double angle1, double angle2) {
+		double span = wrap(angle1 - angle2);
+		if (span >= Math.PI) {
+			return false;
+		}
+
+		double tspan = wrap(angle1 + clipAngle);
+		if (tspan > 2 * clipAngle) {
+			tspan -= 2 * clipAngle;
+			if (tspan >= span) {
+				return false;					// totally off the left edge
+			}
+			angle1 = clipAngle;
+		}
+		tspan = wrap(clipAngle - angle2);
+		if (tspan > 2 * clipAngle) {
+			tspan -= 2 * clipAngle;
+			if (tspan >= span) {
+				return false;					// totally off the right edge
+			}
+			angle2 = -clipAngle;
+		}
+
+		x1 = column(angle1);
+		x2 = column(angle2);
+		return x1 < x2;
+	}
+
+	private int column(double angle) {
+		long x = Math.round(columns / 2.0 - Math.tan(angle) * focal);
+		return (int) Math.max(0, Math.min(columns, x));
+	}
+
+	private double angle(double x, double y) {
+		return normalize(Math.atan2(y - vy, x - vx) - vangle);
+	}
+
+	private static double normalize(double a) {
+		while (a > Math.PI) {
+			a -= 2 * Math.PI;
+		}
+		while (a <= -Math.PI) {
+			a += 2 * Math.PI;
+		}
+		return a;
+	}
+
+	private static double wrap(double a) {
+		while (a >= 2 * Math.PI) {
+			a -= 2 * Math.PI;
+		}
+		while (a < 0) {
+			a += 2 * Math.PI;
+		}
+		return a;
+	}
+
+	/**
+	 * One-sided lines, and two-sided lines whose back sector leaves no gap
+	 * to the front sector, like closed doors.
+	 */
+	private static boolean isSolid(line_t line) {
+		if ((line.linedef.flags & ML_TWOSIDED) == 0 || line.linedef.side.length < 2) {
+			return true;
+		}
+		sectordef_t front = line.linedef.side[line.side].sectordef;
+		sectordef_t back = line.linedef.side[line.side ^ 1].sectordef;
+		return back.ceilingheight <= front.floorheight || back.floorheight >= front.ceilingheight;
+	}
+
+	public int getNodesVisited() {
+		return nodesVisited;
+	}
+
+	/**
+	 * Subtrees skipped because of their bbox.
+	 */
+	public int getNodesCulled() {
+		return nodesCulled;
+	}
+
+	public int getLeavesVisited() {
+		return leavesVisited;
+	}
+
+	public int getSegmentsTested() {
+		return segmentsTested;
+	}
+
+	public int getSegmentsVisible() {
+		return segmentsVisible;
+	}
+
+	/**
+	 * True if the walk ended early because every column was occluded.
+	 */
+	public boolean isScreenFull() {
+		return screenFull;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d nodes visited, %d culled, %d leaves, %d of %d segments visible%s",
+				nodesVisited, nodesCulled, leavesVisited, segmentsVisible, segmentsTested, (screenFull ? ", screen full" : ""));
+	}
+}
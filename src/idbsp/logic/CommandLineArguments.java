@@ -11,6 +11,25 @@ public class CommandLineArguments {
 	private String inmapname;
 	private String outmapname;
 	private boolean draw;
+	private String snapshotname;
+	private int width = 1280, height = 1024;
+	private int fps = 20;
+	private int skip = 1;
+	private boolean fastForward;
+	private double viewX = -2496, viewY = -960, viewAngle = 0;
+	private boolean parallel;
+	private boolean indexed;
+	private boolean memo;
+	private boolean reject;
+	private boolean checkThings;
+	private SplitStrategy strategy = new ExhaustiveSplit();
+	private GeometryKernel kernel = FloatKernel.create();
+	private DoomMapLoader.Mode loaderMode = DoomMapLoader.Mode.PATTERN;
+	private boolean batch;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String metricsname;
+	private String cachename;
+	private long cacheSize = 256L << 20;
 	
 	
 	public String getInmapname() {
@@ -25,27 +44,247 @@ public class CommandLineArguments {
 		return draw;
 	}
 
+	/**
+	 * Image file the drawing goes to instead of the display, null for the
+	 * display. See ImageScreen for the names.
+	 */
+	public String getSnapshotname() {
+		return snapshotname;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFps() {
+		return fps;
+	}
+
+	/**
+	 * Only every skip-th frame of the drawing is shown.
+	 */
+	public int getSkip() {
+		return skip;
+	}
+
+	/**
+	 * Every frame of the drawing is shown for one tick only.
+	 */
+	public boolean isFastForward() {
+		return fastForward;
+	}
+
+	public double getViewX() {
+		return viewX;
+	}
+
+	public double getViewY() {
+		return viewY;
+	}
+
+	/**
+	 * Degrees, counterclockwise from east.
+	 */
+	public double getViewAngle() {
+		return viewAngle;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public boolean isMemo() {
+		return memo;
+	}
+
+	/**
+	 * Computes the REJECT table instead of writing an empty one.
+	 */
+	public boolean isReject() {
+		return reject;
+	}
+
+	/**
+	 * Warns about things outside the map or in void or closed sectors.
+	 */
+	public boolean isCheckThings() {
+		return checkThings;
+	}
+
+	public SplitStrategy getStrategy() {
+		return strategy;
+	}
+
+	public GeometryKernel getKernel() {
+		return kernel;
+	}
+
+	public DoomMapLoader.Mode getLoaderMode() {
+		return loaderMode;
+	}
+
+	public boolean isBatch() {
+		return batch;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * File for the partitioner metrics as JSON, null if not wanted.
+	 */
+	public String getMetricsname() {
+		return metricsname;
+	}
+
+	/**
+	 * Directory of the BspCache, null for no cache.
+	 */
+	public String getCachename() {
+		return cachename;
+	}
+
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
 	public void parse(String[] args) {		
-		if (args.length == 3) {
-			if (!"-draw".equals(args[0])) {
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String option = args[i++];
+			if ("-draw".equals(option)) {
+				draw = true;
+			} else if ("-snapshot".equals(option) && i < args.length) {
+				snapshotname = args[i++];
+			} else if ("-size".equals(option) && i < args.length) {
+				String[] size = args[i++].split("x");
+				try {
+					width = Integer.parseInt(size[0]);
+					height = (size.length == 2 ? Integer.parseInt(size[1]) : 0);
+				} catch (NumberFormatException _ex) {
+					width = 0;
+				}
+				if (width <= 0 || height <= 0) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if (("-fps".equals(option) || "-skip".equals(option)) && i < args.length) {
+				int value;
+				try {
+					value = Integer.parseInt(args[i++]);
+				} catch (NumberFormatException _ex) {
+					value = 0;
+				}
+				if (value < 1) {
+					printUsage();
+					System.exit(1);
+				}
+				if ("-fps".equals(option)) {
+					fps = value;
+				} else {
+					skip = value;
+				}
+			} else if ("-view".equals(option) && i < args.length) {
+				String[] view = args[i++].split(",");
+				try {
+					viewX = Double.parseDouble(view[0]);
+					viewY = Double.parseDouble(view[1]);
+					viewAngle = (view.length > 2 ? Double.parseDouble(view[2]) : 0);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException _ex) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if ("-fast".equals(option)) {
+				fastForward = true;
+			} else if ("-parallel".equals(option)) {
+				parallel = true;
+			} else if ("-indexed".equals(option)) {
+				indexed = true;
+			} else if ("-memo".equals(option)) {
+				memo = true;
+			} else if ("-reject".equals(option)) {
+				reject = true;
+			} else if ("-things".equals(option)) {
+				checkThings = true;
+			} else if ("-strategy".equals(option) && i < args.length) {
+				try {
+					strategy = SplitStrategy.parse(args[i++]);
+				} catch (IllegalArgumentException _ex) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if ("-kernel".equals(option) && i < args.length) {
+				try {
+					kernel = GeometryKernel.parse(args[i++]);
+				} catch (IllegalArgumentException _ex) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if ("-loader".equals(option) && i < args.length) {
+				try {
+					loaderMode = DoomMapLoader.Mode.valueOf(args[i++].toUpperCase());
+				} catch (IllegalArgumentException _ex) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if ("-batch".equals(option)) {
+				batch = true;
+			} else if ("-threads".equals(option) && i < args.length) {
+				try {
+					threads = Integer.parseInt(args[i++]);
+				} catch (NumberFormatException _ex) {
+					threads = 0;
+				}
+				if (threads < 1) {
+					printUsage();
+					System.exit(1);
+				}
+			} else if ("-metrics".equals(option) && i < args.length) {
+				metricsname = args[i++];
+			} else if ("-cache".equals(option) && i < args.length) {
+				cachename = args[i++];
+			} else if ("-cachesize".equals(option) && i < args.length) {
+				try {
+					cacheSize = Math.multiplyExact(Long.parseLong(args[i++]), 1L << 20);
+				} catch (NumberFormatException | ArithmeticException _ex) {
+					cacheSize = 0;
+				}
+				if (cacheSize <= 0) {
+					printUsage();
+					System.exit(1);
+				}
+			} else {
 				printUsage();
 				System.exit(1);
 			}
-			inmapname = args[1];
-			outmapname = args[2];
-			draw = true;
-		} else if (args.length == 2) {
-			inmapname = args[0];
-			outmapname = args[1];
-			draw = false;
-		} else {
+		}
+		
+		if (args.length - i != 2) {
 			printUsage();
 			System.exit(1);
 		}
+		inmapname = args[i];
+		outmapname = args[i + 1];
 
 	}
 	
 	private void printUsage() {
-		System.err.println("idbsp [-draw] inmap outwadpath");
+		System.err.println("idbsp [-draw] [-snapshot file.png|file%05d.png|file.gif [-size 1280x1024]] [-fps n] [-skip n] [-fast]");
+		System.err.println("      [-view x,y[,degrees]]");
+		System.err.println("      [-parallel] [-indexed] [-memo] [-kernel float|fixed] [-loader pattern|scanner|mapped]");
+		System.err.println("      [-strategy exhaustive|stride[:n]|random[:n[:seed]]|axis|twopass[:lines[:n]]] [-reject] [-things]");
+		System.err.println("      [-metrics file.json] [-cache dir [-cachesize mb]] inmap outwadpath");
+		System.err.println("idbsp -batch [-threads n] [-parallel] [-indexed] [-memo] [-kernel float|fixed] [-loader pattern|scanner|mapped]");
+		System.err.println("      [-strategy exhaustive|stride[:n]|random[:n[:seed]]|axis|twopass[:lines[:n]]] [-reject] [-things]");
+		System.err.println("      [-metrics file.json] [-cache dir [-cachesize mb]] mapdir|glob outwadpath");
 	}
 }
@@ -3,6 +3,7 @@ package idbsp.logic;
 import java.util.ArrayList;
 import java.util.List;
 
+import idbsp.types.sectordef_t;
 import idbsp.types.worldline_t;
 import idbsp.types.worldthing_t;
 
@@ -17,6 +18,7 @@ public class DoomMap {
 	private int version;
 	private List<worldline_t> lineStore = new ArrayList<>();
 	private List<worldthing_t> thingStore = new ArrayList<>();
+	private List<sectordef_t> sectorStore = new ArrayList<>();
 
 	public int getVersion() {
 		return version;
@@ -33,6 +35,13 @@ public class DoomMap {
 	public List<worldthing_t> getThingStore() {
 		return thingStore;
 	}
+
+	/**
+	 * One sectordef per sector, the sector of a side is side.sector.
+	 */
+	public List<sectordef_t> getSectorStore() {
+		return sectorStore;
+	}
 	
 	
 }
@@ -2,10 +2,20 @@ package idbsp.logic;
 
 import static idbsp.logic.Constants.ML_TWOSIDED;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -24,9 +34,17 @@ import idbsp.types.worldthing_t;
  */
 public class DoomMapLoader {
 
+	public enum Mode {
+		PATTERN,		// line by line with regular expressions
+		SCANNER,		// hand written scanner on the bytes of the file
+		MAPPED			// scanner on the memory mapped file, records parsed in parallel chunks
+	}
+
 	private static Charset CHARSET_ISO_8559_1 = Charset.forName("iso-8859-1");
 
 	private static final int WORLD_SERVER_VERSION = 4;
+	
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;		// bytes of records per parallel chunk
 
 	private static final Pattern PATTERN_VERSION = Pattern.compile("^WorldServer version (?<version>\\d+)$");
 	private static final Pattern PATTERN_LINECOUNT = Pattern.compile("^lines:(?<lines>\\d+)$");
@@ -36,7 +54,39 @@ public class DoomMapLoader {
 	private static final Pattern PATTERN_WORLDLINE_3 = Pattern.compile("^(.+) : (.+) (.+) : (.+) (.+) (.+) (.+)$");
 	private static final Pattern PATTERN_WORLDTHING = Pattern.compile("^\\((.+),(.+), (.+)\\) :(.+), (.+)$");
 	
+	private Mode mode = Mode.PATTERN;
+	private boolean verbose = true;
+	
+	
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Loads a map, with the sectors of its sides built.
+	 */
 	public DoomMap load(Path path) throws Exception {
+		DoomMap map;
+		if (mode == Mode.SCANNER) {
+			map = loadScanner(path);
+		} else if (mode == Mode.MAPPED) {
+			map = loadMapped(path);
+		} else {
+			map = loadPattern(path);
+		}
+		SectorBuilder.build(map);
+		return map;
+	}
+
+	private DoomMap loadPattern(Path path) throws IOException {
 		DoomMap map = new DoomMap();
 		try (Stream<String> stream = Files.lines(path, CHARSET_ISO_8559_1)) {
 			Iterator<String> iterator = stream.iterator();
@@ -57,23 +107,167 @@ public class DoomMapLoader {
 		return null;
 	}
 	
+	private DoomMap loadScanner(Path path) throws IOException {
+		DoomMap map = new DoomMap();
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		DoomMapScanner scanner = new DoomMapScanner(buffer, 0, buffer.limit());
+		
+		checkWorldServerVersion(scanner.readCount("WorldServer version"), map);
+		
+		int count = checkLineCount(scanner.readCount("lines:"));
+		for (int i = 0; i < count; i++) {
+			map.getLineStore().add(scanner.readLine(i));
+		}
+		
+		count = checkThingCount(scanner.readCount("things:"));
+		for (int i = 0; i < count; i++) {
+			map.getThingStore().add(scanner.readThing(i));
+		}
+		return map;
+	}
+	
+	/*
+	================
+	=
+	= loadMapped
+	=
+	= Maps the file and splits the line and the thing records into chunks
+	= starting at a record boundary. The chunks are read in parallel and
+	= joined in file order
+	================
+	*/
+
+	private DoomMap loadMapped(Path path) throws IOException {
+		DoomMap map = new DoomMap();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("LoadDoomMap: file too large to map");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			DoomMapScanner scanner = new DoomMapScanner(buffer, 0, buffer.limit());
+			
+			checkWorldServerVersion(scanner.readCount("WorldServer version"), map);
+			int linecount = checkLineCount(scanner.readCount("lines:"));
+			int linesStart = scanner.position();
+			
+			int thingsStart = findThings(buffer, linesStart);
+			if (thingsStart < 0) {
+				throw new IllegalArgumentException(String.format("LoadDoomMap: can't read thingcount"));
+			}
+			scanner = new DoomMapScanner(buffer, thingsStart, buffer.limit());
+			int thingcount = checkThingCount(scanner.readCount("things:"));
+			int thingsEnd = buffer.limit();
+			
+			List<worldline_t> lines = readChunks(buffer, linesStart, thingsStart, (s, i) -> s.readLine(i));
+			if (lines.size() != linecount) {
+				throw new IllegalArgumentException(String.format("Failed ReadLine"));
+			}
+			for (int i = 0; i < lines.size(); i++) {
+				for (worldside_t side : lines.get(i).side) {
+					if ("-".equals(side.sectordef.floorflat)) {
+						System.err.println(String.format("WARNING: line %d has no sectordef", i));
+					}
+				}
+			}
+			map.getLineStore().addAll(lines);
+			
+			List<worldthing_t> things = readChunks(buffer, scanner.position(), thingsEnd, (s, i) -> s.readThing(i));
+			if (things.size() != thingcount) {
+				throw new IllegalArgumentException(String.format("Failed ReadThing"));
+			}
+			map.getThingStore().addAll(things);
+		}
+		return map;
+	}
+	
+	/**
+	 * Start of the "things:" line, searched backwards from the end of the file.
+	 */
+	private static int findThings(ByteBuffer buffer, int from) {
+		byte[] keyword = "things:".getBytes(CHARSET_ISO_8559_1);
+		for (int pos = buffer.limit() - keyword.length; pos >= from; pos--) {
+			if (pos > 0 && buffer.get(pos - 1) != '\n') {
+				continue;
+			}
+			int i = 0;
+			while (i < keyword.length && buffer.get(pos + i) == keyword[i]) {
+				i++;
+			}
+			if (i == keyword.length) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+	
+	private static <T> List<T> readChunks(ByteBuffer buffer, int start, int end, BiFunction<DoomMapScanner, Integer, T> reader) {
+		int chunks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), (end - start) / MIN_CHUNK_SIZE));
+		List<int[]> bounds = new ArrayList<>();
+		int from = start;
+		for (int c = 1; c <= chunks; c++) {
+			int to = (c == chunks ? end : nextRecord(buffer, start + (int) ((long) (end - start) * c / chunks), end));
+			if (to > from) {
+				bounds.add(new int[] { from, to });
+				from = to;
+			}
+		}
+		
+		List<List<T>> parts = bounds.parallelStream().map(b -> {
+			DoomMapScanner scanner = new DoomMapScanner(buffer, b[0], b[1]);
+			scanner.setWarnings(false);
+			List<T> records = new ArrayList<>();
+			while (!scanner.atEnd()) {
+				records.add(reader.apply(scanner, records.size()));
+			}
+			return records;
+		}).collect(Collectors.toList());
+		
+		List<T> records = new ArrayList<>();
+		for (List<T> part : parts) {
+			records.addAll(part);
+		}
+		return records;
+	}
+	
+	/**
+	 * Start of the first record at or after pos: a line starting with '('.
+	 */
+	private static int nextRecord(ByteBuffer buffer, int pos, int end) {
+		while (pos < end && !(buffer.get(pos) == '(' && buffer.get(pos - 1) == '\n')) {
+			pos++;
+		}
+		return pos;
+	}
+	
 	private void readWorldServerVersion(Iterator<String> iterator, DoomMap map) {
 		Matcher m = PATTERN_VERSION.matcher(nextLine(iterator));
 		int version = (m.matches() ? Integer.parseInt(m.group("version")) : -1);
+		checkWorldServerVersion(version, map);
+	}
+	
+	private void checkWorldServerVersion(int version, DoomMap map) {
 		if (WORLD_SERVER_VERSION != version) {
 			throw new IllegalArgumentException(String.format("LoadDoomMap: not a version %d doom map", WORLD_SERVER_VERSION));
 		}
-		System.out.println("doom map version: " + version);
+		if (verbose) {
+			System.out.println("doom map version: " + version);
+		}
 		map.setVersion(version);
 	}
 
 	private int readLineCount(Iterator<String> iterator) {
 		Matcher m = PATTERN_LINECOUNT.matcher(nextLine(iterator));
 		int count = (m.matches() ? Integer.parseInt(m.group("lines")) : -1);
+		return checkLineCount(count);
+	}
+
+	private int checkLineCount(int count) {
 		if (count < 0) {
 			throw new IllegalArgumentException(String.format("LoadDoomMap: can't read linecount"));
 		}
-		System.out.println(String.format("%d lines", count));
+		if (verbose) {
+			System.out.println(String.format("%d lines", count));
+		}
 		return count;
 	}
 
@@ -142,10 +336,16 @@ public class DoomMapLoader {
 	private int readThingCount(Iterator<String> iterator) {
 		Matcher m = PATTERN_THINGCOUNT.matcher(nextLine(iterator));
 		int count = (m.matches() ? Integer.parseInt(m.group("things")) : -1);
+		return checkThingCount(count);
+	}
+
+	private int checkThingCount(int count) {
 		if (count < 0) {
 			throw new IllegalArgumentException(String.format("LoadDoomMap: can't read thingcount"));
 		}
-		System.out.println(String.format("%d things", count));
+		if (verbose) {
+			System.out.println(String.format("%d things", count));
+		}
 		return count;
 	}
 
@@ -0,0 +1,320 @@
+package idbsp.logic;
+
+import static idbsp.logic.Constants.ML_TWOSIDED;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import idbsp.types.NXPoint;
+import idbsp.types.sectordef_t;
+import idbsp.types.worldline_t;
+import idbsp.types.worldside_t;
+import idbsp.types.worldthing_t;
+
+/**
+ * DoomMapScanner
+ *
+ * Reads the records of a doom map directly from the bytes of the file,
+ * without regular expressions and without substrings for the numbers.
+ * Texture and flat names are shared through a small name cache.
+ *
+ */
+class DoomMapScanner {
+
+	private static final Charset CHARSET_ISO_8559_1 = Charset.forName("iso-8859-1");
+
+	private static final int NAME_CACHE_SIZE = 1024;		// power of two
+
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final ByteBuffer buffer;
+	private final int limit;
+	private int pos;
+
+	private final String[] names = new String[NAME_CACHE_SIZE];
+	private boolean warnings = true;
+
+
+	DoomMapScanner(ByteBuffer buffer, int position, int limit) {
+		this.buffer = buffer;
+		this.pos = position;
+		this.limit = limit;
+	}
+
+	int position() {
+		return pos;
+	}
+
+	/**
+	 * Whether readLine prints a warning for a side without sectordef.
+	 */
+	void setWarnings(boolean warnings) {
+		this.warnings = warnings;
+	}
+
+	boolean atEnd() {
+		skipSpace();
+		return pos >= limit;
+	}
+
+	/*
+	================
+	=
+	= readLine
+	=
+	= Reads a worldline with its one or two sides:
+	=   (x1,y1) to (x2,y2) : flags : special : tag
+	=   firstrow (firstcollumn : top / bottom / mid )
+	=   floorheight : floorflat ceilingheight : ceilingflat light special tag
+	================
+	*/
+
+	worldline_t readLine(int linenum) {
+		worldline_t line = new worldline_t();
+		line.p1 = new NXPoint();
+		line.p2 = new NXPoint();
+
+		String error = "Failed ReadLine";
+		expect('(', error);
+		line.p1.x = readNumber();
+		expect(',', error);
+		line.p1.y = readNumber();
+		expect(')', error);
+		if (!keyword("to")) {
+			throw new IllegalArgumentException(error);
+		}
+		expect('(', error);
+		line.p2.x = readNumber();
+		expect(',', error);
+		line.p2.y = readNumber();
+		expect(')', error);
+		expect(':', error);
+		line.flags = readInt();
+		expect(':', error);
+		line.special = readInt();
+		expect(':', error);
+		line.tag = readInt();
+
+		int sides = ((line.flags & ML_TWOSIDED) == 0 ? 1 : 2);
+		line.side = new worldside_t[sides];
+
+		for (int i = 0; i < sides; i++) {
+			worldside_t s = line.side[i] = new worldside_t();
+			sectordef_t e = line.side[i].sectordef = new sectordef_t();
+
+			error = "Failed ReadLine (side)";
+			s.firstrow = readInt();
+			expect('(', error);
+			s.firstcollumn = readInt();
+			expect(':', error);
+			s.toptexture = readName();
+			expect('/', error);
+			s.bottomtexture = readName();
+			expect('/', error);
+			s.midtexture = readName();
+			expect(')', error);
+
+			error = "Failed ReadLine (sector)";
+			e.floorheight = readInt();
+			expect(':', error);
+			e.floorflat = readName();
+			e.ceilingheight = readInt();
+			expect(':', error);
+			e.ceilingflat = readName();
+			e.lightlevel = readInt();
+			e.special = readInt();
+			e.tag = readInt();
+
+			if (warnings && "-".equals(e.floorflat)) {
+				System.err.println(String.format("WARNING: line %d has no sectordef", linenum));
+			}
+		}
+
+		return line;
+	}
+
+	/*
+	================
+	=
+	= readThing
+	=
+	= Reads a worldthing:
+	=   (x,y, angle) :type, options
+	================
+	*/
+
+	worldthing_t readThing(int linenum) {
+		worldthing_t thing = new worldthing_t();
+		thing.origin = new NXPoint();
+
+		String error = "Failed ReadThing";
+		expect('(', error);
+		int x = readInt();
+		expect(',', error);
+		int y = readInt();
+		expect(',', error);
+		thing.angle = readInt();
+		expect(')', error);
+		expect(':', error);
+		thing.type = readInt();
+		expect(',', error);
+		thing.options = readInt();
+
+		thing.origin.x = x & -16;
+		thing.origin.y = y & -16;
+
+		return thing;
+	}
+
+	/**
+	 * Reads "keyword" followed by a number, e.g. "lines:475".
+	 * Returns -1 if the keyword does not match.
+	 */
+	int readCount(String keyword) {
+		return (keyword(keyword) ? readInt() : -1);
+	}
+
+	private boolean keyword(String keyword) {
+		skipSpace();
+		for (int i = 0; i < keyword.length(); i++) {
+			if (pos + i >= limit || buffer.get(pos + i) != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		pos += keyword.length();
+		return true;
+	}
+
+	private void skipSpace() {
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private void expect(char c, String error) {
+		skipSpace();
+		if (pos >= limit || buffer.get(pos) != c) {
+			throw new IllegalArgumentException(error);
+		}
+		pos++;
+	}
+
+	private int readInt() {
+		skipSpace();
+		boolean negative = false;
+		if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos++) == '-';
+		}
+		int start = pos;
+		long value = 0;
+		while (pos < limit) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			if (value > (negative ? (long) Integer.MAX_VALUE + 1 : Integer.MAX_VALUE)) {
+				throw new NumberFormatException(String.format("LoadDoomMap: number too large at offset %d", start));
+			}
+			pos++;
+		}
+		if (pos == start) {
+			throw new NumberFormatException(String.format("LoadDoomMap: number expected at offset %d", start));
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Reads a decimal number with an optional fraction, rounded the same
+	 * way as Double.parseDouble.
+	 */
+	private double readNumber() {
+		skipSpace();
+		int start = pos;
+		boolean negative = false;
+		if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos++) == '-';
+		}
+		long mantissa = 0;
+		int digits = 0, fraction = 0;
+		boolean point = false;
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			if (b == '.' && !point) {
+				point = true;
+			} else if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (point) {
+					fraction++;
+				}
+			} else {
+				break;
+			}
+			pos++;
+		}
+		if (digits == 0) {
+			throw new NumberFormatException(String.format("LoadDoomMap: number expected at offset %d", start));
+		}
+		if (digits > 15 || fraction >= POWERS_OF_TEN.length) {
+			// not exact as long / power of ten, leave it to the library
+			return Double.parseDouble(substring(start, pos));
+		}
+		double value = mantissa / POWERS_OF_TEN[fraction];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a texture or flat name up to the next white space.
+	 */
+	private String readName() {
+		skipSpace();
+		int start = pos;
+		int hash = 0;
+		while (pos < limit) {
+			byte b = buffer.get(pos);
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+				break;
+			}
+			hash = 31 * hash + (b & 0xFF);
+			pos++;
+		}
+		if (pos == start) {
+			throw new IllegalArgumentException(String.format("LoadDoomMap: name expected at offset %d", start));
+		}
+
+		int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+		String name = names[slot];
+		if (name == null || !matches(name, start, pos)) {
+			name = names[slot] = substring(start, pos);
+		}
+		return name;
+	}
+
+	private boolean matches(String name, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != (buffer.get(start + i) & 0xFF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String substring(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, CHARSET_ISO_8559_1);
+	}
+}
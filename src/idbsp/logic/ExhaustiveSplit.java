@@ -0,0 +1,20 @@
+package idbsp.logic;
+
+/**
+ * ExhaustiveSplit
+ *
+ * Grades every line of the list, the best tree and the slowest build.
+ *
+ */
+public class ExhaustiveSplit implements SplitStrategy {
+
+	@Override
+	public String getName() {
+		return "exhaustive";
+	}
+
+	@Override
+	public int[] candidates(int pass, int[] lines_i, SegmentStore store) {
+		return (pass == 0 ? SplitStrategy.all(lines_i) : null);
+	}
+}
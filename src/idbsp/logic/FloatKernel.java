@@ -0,0 +1,202 @@
+package idbsp.logic;
+
+/**
+ * FloatKernel
+ *
+ * The geometry of the original idbsp in doubles: PointOnSide of Utils, cut
+ * points snapped to whole numbers when they are within 0.1 of one.
+ *
+ * create gives the VectorKernel, with LinesOnSide on DoubleVector lanes,
+ * where the runtime has jdk.incubator.vector (java --add-modules
+ * jdk.incubator.vector), and this scalar kernel otherwise. Both decide
+ * the same sides.
+ *
+ */
+public class FloatKernel implements GeometryKernel {
+
+	private static final String VECTOR_CLASS = "idbsp.logic.VectorKernel";
+
+	private static Class<? extends FloatKernel> kernelClass;
+
+	// LineOnSide by the sides of the two ends, [3 * (s1 + 1) + s2 + 1],
+	// -1 for colinear
+	private static final byte[] LINESIDE = {
+		-1,	0,	1,
+		0,	0,	-2,
+		1,	-2,	1
+	};
+
+	/**
+	 * A new FloatKernel, the VectorKernel if it can be loaded.
+	 */
+	public static FloatKernel create() {
+		try {
+			return kernelClass().getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException _ex) {
+			return new FloatKernel();
+		}
+	}
+
+	// VectorKernel is loaded by name, so that this class runs without the
+	// module. It is compiled apart from src, from src-vector, and tried on
+	// a few lines once, so that an incubator API of another version falls
+	// back to the scalar kernel too
+	private static synchronized Class<? extends FloatKernel> kernelClass() {
+		if (kernelClass == null) {
+			try {
+				FloatKernel vector = Class.forName(VECTOR_CLASS).asSubclass(FloatKernel.class).getDeclaredConstructor().newInstance();
+				double[] zero = { 0 }, one = { 1 };
+				vector.LinesOnSide(zero, zero, one, one, new int[9], 0, 9, 0, 4, 1, 1, new byte[9]);
+				kernelClass = vector.getClass();
+			} catch (ReflectiveOperationException | LinkageError _ex) {
+				kernelClass = FloatKernel.class;
+			}
+		}
+		return kernelClass;
+	}
+
+	@Override
+	public String getName() {
+		return "float";
+	}
+
+	@Override
+	public int PointOnSide(double px, double py, double lx, double ly, double ldx, double ldy) {
+		return Utils.PointOnSide(px, py, lx, ly, ldx, ldy);
+	}
+
+	@Override
+	public int LineOnSide(double x1, double y1, double x2, double y2, double lx, double ly, double ldx, double ldy) {
+		return Utils.LineOnSide(x1, y1, x2, y2, lx, ly, ldx, ldy);
+	}
+
+	/*
+	==================
+	=
+	= LinesOnSide
+	=
+	= One loop for the whole batch, the tests of PointOnSide that only
+	= depend on the divline are made once before it and the sides of the
+	= two ends are combined by table. The loop makes no calls but still
+	= branches on every line, so the JIT does not vectorize it: the
+	= VectorKernel does that with masks
+	==================
+	*/
+
+	@Override
+	public long LinesOnSide(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int from, int to,
+			double lx, double ly, double ldx, double ldy, byte[] sides) {
+		int front = 0, back = 0;
+		if (ldx == 0) {
+			double lo = lx - 2, hi = lx + 2;
+			int left = (ldy > 0 ? 1 : 0), right = (ldy < 0 ? 1 : 0);
+			for (int i = from; i < to; i++) {
+				int line_p = lines_i[i];
+				double p1 = x1[line_p], p2 = x2[line_p];
+				int s1 = (p1 > lo && p1 < hi ? -1 : (p1 < lx ? left : right));
+				int s2 = (p2 > lo && p2 < hi ? -1 : (p2 < lx ? left : right));
+				int side = lineSide(s1, s2, x1, y1, x2, y2, line_p, ldx, ldy);
+				if (sides != null) {
+					sides[i - from] = (byte) side;
+				}
+				front += (side != 1 ? 1 : 0);
+				back += (side != 0 ? 1 : 0);
+			}
+		} else if (ldy == 0) {
+			double lo = ly - 2, hi = ly + 2;
+			int below = (ldx < 0 ? 1 : 0), above = (ldx > 0 ? 1 : 0);
+			for (int i = from; i < to; i++) {
+				int line_p = lines_i[i];
+				double p1 = y1[line_p], p2 = y2[line_p];
+				int s1 = (p1 > lo && p1 < hi ? -1 : (p1 < ly ? below : above));
+				int s2 = (p2 > lo && p2 < hi ? -1 : (p2 < ly ? below : above));
+				int side = lineSide(s1, s2, x1, y1, x2, y2, line_p, ldx, ldy);
+				if (sides != null) {
+					sides[i - from] = (byte) side;
+				}
+				front += (side != 1 ? 1 : 0);
+				back += (side != 0 ? 1 : 0);
+			}
+		} else {
+			double a = ldx * ldx + ldy * ldy;
+			for (int i = from; i < to; i++) {
+				int line_p = lines_i[i];
+				double dx1 = x1[line_p] - lx, dy1 = y1[line_p] - ly;
+				double dx2 = x2[line_p] - lx, dy2 = y2[line_p] - ly;
+				double b1 = -2.0 * (ldx * dx1 + ldy * dy1), c1 = dx1 * dx1 + dy1 * dy1 - 4.0;
+				double b2 = -2.0 * (ldx * dx2 + ldy * dy2), c2 = dx2 * dx2 + dy2 * dy2 - 4.0;
+				int s1 = (b1 * b1 - 4 * a * c1 > 0 ? -1 : (dx1 * ldy - dy1 * ldx > 0 ? 0 : 1));
+				int s2 = (b2 * b2 - 4 * a * c2 > 0 ? -1 : (dx2 * ldy - dy2 * ldx > 0 ? 0 : 1));
+				int side = lineSide(s1, s2, x1, y1, x2, y2, line_p, ldx, ldy);
+				if (sides != null) {
+					sides[i - from] = (byte) side;
+				}
+				front += (side != 1 ? 1 : 0);
+				back += (side != 0 ? 1 : 0);
+			}
+		}
+		return ((long) front << 32) | back;
+	}
+
+	private static int lineSide(int s1, int s2, double[] x1, double[] y1, double[] x2, double[] y2, int line_p, double ldx, double ldy) {
+		int side = LINESIDE[3 * s1 + s2 + 4];
+		if (side == -1) {
+			// colinear, so see if the directions are the same
+			double dx = x2[line_p] - x1[line_p];
+			double dy = y2[line_p] - y1[line_p];
+			side = (Math.signum(dx) == Math.signum(ldx) && Math.signum(dy) == Math.signum(ldy) ? 0 : 1);
+		}
+		return side;
+	}
+
+	@Override
+	public void intercept(double x1, double y1, double x2, double y2, double lx, double ly, double ldx, double ldy, double[] cut) {
+		double dx = x2 - x1, dy = y2 - y1;
+		double frac = InterceptVector(x1, y1, dx, dy, lx, ly, ldx, ldy);
+		cut[0] = x1 + round(dx * frac);
+		cut[1] = y1 + round(dy * frac);
+		cut[2] = frac;
+	}
+
+	static double round (double x) {
+		if (x > 0) {
+			if (x - (int) x < 0.1) {
+				return (int) x;
+			} else if (x - (int) x > 0.9) {
+				return (int) x + 1;
+			} else {
+				return x;
+			}
+		}
+
+		if ((int) x - x < 0.1) {
+			return (int) x;
+		} else if ((int) x - x > 0.9) {
+			return  (int) x - 1;
+		}
+		return x;
+	}
+
+	/*
+	===============
+	=
+	= InterceptVector
+	=
+	= Returns the fractional intercept point along first vector
+	= (x2, y2) + t * (dx2, dy2) with the second one (x1, y1) + t * (dx1, dy1)
+	===============
+	*/
+
+	private static double InterceptVector (double x2, double y2, double dx2, double dy2, double x1, double y1, double dx1, double dy1) {
+		double den = dy1 * dx2 - dx1 * dy2;
+		if (den == 0) {
+			throw new IllegalArgumentException("InterceptVector: parallel");
+		}
+		double num = (x1 - x2) * dy1 + (y2 - y1) * dx1;
+		double frac = num / den;
+		if (frac <= 0.0 || frac >= 1.0) {
+			throw new IllegalArgumentException("InterceptVector: intersection outside line");
+		}
+		return frac;
+	}
+}
@@ -0,0 +1,110 @@
+package idbsp.logic;
+
+/**
+ * GeometryKernel
+ *
+ * The geometry the partitioner decides with: which side of a divline a
+ * point or a segment lies on, and where a segment is cut. Points within
+ * two units of the divline count as on it (colinear).
+ *
+ * FloatKernel is the arithmetic of the original idbsp in doubles,
+ * FixedKernel decides exactly on 16.16 fixed point values.
+ *
+ */
+public interface GeometryKernel {
+
+	/**
+	 * Name as given to parse, part of the BspCache key.
+	 */
+	String getName();
+
+	/**
+	 * Returns side 0 (front), 1 (back), or -1 (colinear)
+	 */
+	int PointOnSide(double px, double py, double lx, double ly, double ldx, double ldy);
+
+	/**
+	 * Where the segment from (x1, y1) to (x2, y2) is cut by the divline:
+	 * the point into cut[0] and cut[1], the fraction of the segment before
+	 * it into cut[2].
+	 */
+	void intercept(double x1, double y1, double x2, double y2, double lx, double ly, double ldx, double ldy, double[] cut);
+
+	/*
+	==================
+	=
+	= LineOnSide
+	=
+	= Returns side 0 (front), 1 (back) or -2 if line must be split
+	= If the line is colinear, it will be placed on the front side if
+	= it is going the same direction as the dividing line
+	==================
+	*/
+
+	default int LineOnSide(double x1, double y1, double x2, double y2, double lx, double ly, double ldx, double ldy) {
+		int s1 = PointOnSide(x1, y1, lx, ly, ldx, ldy);
+		int s2 = PointOnSide(x2, y2, lx, ly, ldx, ldy);
+
+		if (s1 == s2) {
+			if (s1 == -1) {
+				// colinear, so see if the directions are the same
+				double dx = x2 - x1;
+				double dy = y2 - y1;
+				if (Math.signum(dx) == Math.signum(ldx) && Math.signum(dy) == Math.signum(ldy)) {
+					return 0;
+				}
+				return 1;
+			}
+			return s1;
+		}
+		if (s1 == -1) {
+			return s2;
+		}
+		if (s2 == -1) {
+			return s1;
+		}
+
+		return -2;
+	}
+
+	/*
+	==================
+	=
+	= LinesOnSide
+	=
+	= LineOnSide of the segments lines_i[from] to lines_i[to - 1] into
+	= sides[0] to sides[to - from - 1]. Returns the number of front lines in
+	= the upper and of back lines in the lower half of a long, a line to be
+	= split counting on both sides: the number of splits is their sum less
+	= to - from. sides may be null when only the counts are wanted
+	==================
+	*/
+
+	default long LinesOnSide(double[] x1, double[] y1, double[] x2, double[] y2, int[] lines_i, int from, int to,
+			double lx, double ly, double ldx, double ldy, byte[] sides) {
+		int front = 0, back = 0;
+		for (int i = from; i < to; i++) {
+			int line_p = lines_i[i];
+			int side = LineOnSide(x1[line_p], y1[line_p], x2[line_p], y2[line_p], lx, ly, ldx, ldy);
+			if (sides != null) {
+				sides[i - from] = (byte) side;
+			}
+			front += (side != 1 ? 1 : 0);
+			back += (side != 0 ? 1 : 0);
+		}
+		return ((long) front << 32) | back;
+	}
+
+	/**
+	 * float | fixed
+	 */
+	static GeometryKernel parse(String spec) {
+		switch (spec) {
+		case "float":
+			return FloatKernel.create();
+		case "fixed":
+			return new FixedKernel();
+		}
+		throw new IllegalArgumentException(String.format("GeometryKernel: bad kernel %s", spec));
+	}
+}
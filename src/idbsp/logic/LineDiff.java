@@ -0,0 +1,53 @@
+package idbsp.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import idbsp.types.worldline_t;
+
+/**
+ * LineDiff
+ *
+ * The lines of a map that changed since its tree was built. Added and
+ * changed lines are part of the map, removed lines no longer are. A changed
+ * line is the same worldline_t object as before, e.g. with a moved vertex.
+ *
+ */
+public class LineDiff {
+
+	private final List<worldline_t> added = new ArrayList<>();
+	private final List<worldline_t> changed = new ArrayList<>();
+	private final List<worldline_t> removed = new ArrayList<>();
+
+
+	public LineDiff add(worldline_t line) {
+		added.add(line);
+		return this;
+	}
+
+	public LineDiff change(worldline_t line) {
+		changed.add(line);
+		return this;
+	}
+
+	public LineDiff remove(worldline_t line) {
+		removed.add(line);
+		return this;
+	}
+
+	public List<worldline_t> getAdded() {
+		return added;
+	}
+
+	public List<worldline_t> getChanged() {
+		return changed;
+	}
+
+	public List<worldline_t> getRemoved() {
+		return removed;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+}
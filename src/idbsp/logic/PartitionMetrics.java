@@ -0,0 +1,250 @@
+package idbsp.logic;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * PartitionMetrics
+ *
+ * What one run of the partitioner spent its time on: nanoseconds per
+ * phase, side tests, graded candidates and the shape of the tree. All
+ * counters may be updated by concurrent tasks; in a parallel build the
+ * phase times are the sums over all tasks and can exceed the wall time
+ * of PROCESS.
+ *
+ * The metrics are available as JSON, and as JFR events on runtimes with
+ * Flight Recorder (idbsp.Partition and idbsp.PartitionPhase).
+ *
+ */
+public class PartitionMetrics {
+
+	public enum Phase {
+		LOAD("load"),						// added by the caller, the partitioner does not load
+		PROCESS("process"),					// wall time of process
+		MAKE_SEGMENTS("makeSegments"),
+		COMPUTE_BBOX("computeBBox"),
+		BUILD_INDEX("buildIndex"),
+		MEMO("memo"),						// keys and lookups of the SubtreeMemo
+		EVALUATE_SPLIT("evaluateSplit"),	// the whole search for the best split of a node
+		EXECUTE_SPLIT("executeSplit"),
+		MAKE_LEAVES("makeLeaves");
+
+		private final String key;
+
+		Phase(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+	}
+
+	private static final String EVENTS_CLASS = "idbsp.logic.PartitionEvents";
+
+	private static Consumer<PartitionMetrics> events;
+	private static boolean eventsLoaded = false;
+
+	private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+	final LongAdder lineOnSideCalls = new LongAdder();
+	final LongAdder candidatesEvaluated = new LongAdder();
+	final LongAdder candidatesEarlyExit = new LongAdder();
+	final LongAdder candidatesNotPartitioning = new LongAdder();
+	final LongAdder memoHits = new LongAdder();
+	final LongAdder memoMisses = new LongAdder();
+	final LongAdder nodes = new LongAdder();
+	final LongAdder leaves = new LongAdder();
+	final LongAdder leafDepths = new LongAdder();
+	final LongAdder leafSegments = new LongAdder();
+	final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+	final LongAccumulator minLeafSegments = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	final LongAccumulator maxLeafSegments = new LongAccumulator(Math::max, 0);
+
+	private int segments, cuts;
+	private boolean cacheHit = false;
+
+
+	public PartitionMetrics() {
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] = new LongAdder();
+		}
+	}
+
+	public void add(Phase phase, long nanos) {
+		this.nanos[phase.ordinal()].add(nanos);
+	}
+
+	/**
+	 * Adds the time since start to phase and returns the current time as
+	 * start of the next phase.
+	 */
+	long lap(Phase phase, long start) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()].add(now - start);
+		return now;
+	}
+
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()].sum();
+	}
+
+	void leaf(int depth, int segments) {
+		leaves.increment();
+		leafDepths.add(depth);
+		leafSegments.add(segments);
+		maxDepth.accumulate(depth);
+		minLeafSegments.accumulate(segments);
+		maxLeafSegments.accumulate(segments);
+	}
+
+	void finish(int segments, int cuts) {
+		this.segments = segments;
+		this.cuts = cuts;
+	}
+
+	/**
+	 * Segments made from the lines of the map, before any cuts.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	public int getCuts() {
+		return cuts;
+	}
+
+	/**
+	 * Whether the tree came from the BspCache, all other counters are zero
+	 * then.
+	 */
+	public boolean isCacheHit() {
+		return cacheHit;
+	}
+
+	void setCacheHit(boolean cacheHit) {
+		this.cacheHit = cacheHit;
+	}
+
+	public long getLineOnSideCalls() {
+		return lineOnSideCalls.sum();
+	}
+
+	public long getCandidatesEvaluated() {
+		return candidatesEvaluated.sum();
+	}
+
+	/**
+	 * Candidates whose evaluation stopped because they could not beat the
+	 * best grade so far.
+	 */
+	public long getCandidatesEarlyExit() {
+		return candidatesEarlyExit.sum();
+	}
+
+	/**
+	 * Candidates that had all other lines on one side.
+	 */
+	public long getCandidatesNotPartitioning() {
+		return candidatesNotPartitioning.sum();
+	}
+
+	/**
+	 * Lists whose split was taken from the SubtreeMemo.
+	 */
+	public long getMemoHits() {
+		return memoHits.sum();
+	}
+
+	/**
+	 * Lists that could be memoized but had to be searched.
+	 */
+	public long getMemoMisses() {
+		return memoMisses.sum();
+	}
+
+	/**
+	 * Inner nodes of the tree.
+	 */
+	public long getNodes() {
+		return nodes.sum();
+	}
+
+	public long getLeaves() {
+		return leaves.sum();
+	}
+
+	public int getMaxDepth() {
+		return (int) maxDepth.get();
+	}
+
+	public double getMeanDepth() {
+		long n = leaves.sum();
+		return (n == 0 ? 0 : (double) leafDepths.sum() / n);
+	}
+
+	public int getMinLeafSegments() {
+		return (leaves.sum() == 0 ? 0 : (int) minLeafSegments.get());
+	}
+
+	public int getMaxLeafSegments() {
+		return (int) maxLeafSegments.get();
+	}
+
+	public double getMeanLeafSegments() {
+		long n = leaves.sum();
+		return (n == 0 ? 0 : (double) leafSegments.sum() / n);
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append(String.format(Locale.ROOT, "  \"segments\": %d,\n", segments));
+		json.append(String.format(Locale.ROOT, "  \"cuts\": %d,\n", cuts));
+		json.append(String.format(Locale.ROOT, "  \"cacheHit\": %b,\n", cacheHit));
+		json.append(String.format(Locale.ROOT, "  \"nodes\": %d,\n", getNodes()));
+		json.append(String.format(Locale.ROOT, "  \"leaves\": %d,\n", getLeaves()));
+		json.append(String.format(Locale.ROOT, "  \"depth\": { \"max\": %d, \"mean\": %.2f },\n", getMaxDepth(), getMeanDepth()));
+		json.append(String.format(Locale.ROOT, "  \"segmentsPerLeaf\": { \"min\": %d, \"max\": %d, \"mean\": %.2f },\n",
+				getMinLeafSegments(), getMaxLeafSegments(), getMeanLeafSegments()));
+		json.append(String.format(Locale.ROOT, "  \"lineOnSideCalls\": %d,\n", getLineOnSideCalls()));
+		json.append(String.format(Locale.ROOT, "  \"candidates\": { \"evaluated\": %d, \"earlyExit\": %d, \"notPartitioning\": %d },\n",
+				getCandidatesEvaluated(), getCandidatesEarlyExit(), getCandidatesNotPartitioning()));
+		json.append(String.format(Locale.ROOT, "  \"memo\": { \"hits\": %d, \"misses\": %d },\n", getMemoHits(), getMemoMisses()));
+		json.append("  \"nanos\": {");
+		for (Phase phase : Phase.values()) {
+			json.append(String.format(Locale.ROOT, "%s\n    \"%s\": %d", (phase.ordinal() == 0 ? "" : ","), phase.getKey(), getNanos(phase)));
+		}
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Commits the metrics as JFR events. Does nothing on a runtime without
+	 * Flight Recorder; the events are only recorded while a recording with
+	 * them enabled is running.
+	 */
+	public void commitEvents() {
+		Consumer<PartitionMetrics> consumer = events();
+		if (consumer != null) {
+			consumer.accept(this);
+		}
+	}
+
+	// PartitionEvents is loaded by name, so that this class runs without jdk.jfr.
+	// It is compiled apart from src, from src-jfr, as jdk.jfr is no Java 8 API
+	@SuppressWarnings("unchecked")
+	private static synchronized Consumer<PartitionMetrics> events() {
+		if (!eventsLoaded) {
+			eventsLoaded = true;
+			try {
+				events = (Consumer<PartitionMetrics>) Class.forName(EVENTS_CLASS).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError _ex) {
+				events = null;
+			}
+		}
+		return events;
+	}
+}
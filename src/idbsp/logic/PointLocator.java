@@ -0,0 +1,155 @@
+package idbsp.logic;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import idbsp.types.bspnode_t;
+import idbsp.types.divline_t;
+import idbsp.types.line_t;
+import idbsp.types.sectordef_t;
+import idbsp.types.worldthing_t;
+
+/**
+ * PointLocator
+ *
+ * Finds the leaf and the sector of a point by walking down the tree, the
+ * way Doom places a thing: the side of a partition line is the exact sign
+ * test of R_PointOnSide on the whole numbers the WAD stores, a point on
+ * the line goes to the back, and the sector is that of the first seg of
+ * the leaf. The colinear band of the GeometryKernel only serves building
+ * the tree, the game does not know it.
+ *
+ * The leaves of a tree cover the whole plane, inside the map or not. A
+ * leaf is convex and its segs face inward, so a point strictly behind one
+ * of the segs of its leaf is outside the map.
+ *
+ */
+public class PointLocator {
+
+	public enum Placement {
+		INSIDE,
+		OUTSIDE,		// behind a wall of its leaf
+		VOID,			// in a sector without a sectordef
+		CLOSED			// in a sector with no room between floor and ceiling
+	}
+
+	private final DoomMap map;
+	private final bspnode_t root;
+	private final SectorGraph graph;
+	private final Map<bspnode_t, Integer> leafnums = new IdentityHashMap<>();
+
+
+	public PointLocator(DoomMap map, bspnode_t root) {
+		this.map = map;
+		this.root = root;
+		this.graph = new SectorGraph(map, root);
+		for (int leaf = 0; leaf < graph.getLeafCount(); leaf++) {
+			leafnums.put(graph.getLeaf(leaf), leaf);
+		}
+	}
+
+	public SectorGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * The leaf of (x, y), as numbered by the SectorGraph.
+	 */
+	public int locate(double x, double y) {
+		bspnode_t node = root;
+		while (node.lines_i == null) {
+			divline_t d = node.divline;
+			node = node.side[PointOnSide(x, y, d.pt.x, d.pt.y, d.dx, d.dy)];
+		}
+		return leafnums.get(node);
+	}
+
+	/**
+	 * The sector Doom puts (x, y) in, -1 for a leaf without segs.
+	 */
+	public int getSector(double x, double y) {
+		return graph.getSector(locate(x, y));
+	}
+
+	public Placement classify(double x, double y) {
+		return classify(locate(x, y), x, y);
+	}
+
+	private Placement classify(int leaf, double x, double y) {
+		int sector = graph.getSector(leaf);
+		if (sector == -1) {
+			return Placement.OUTSIDE;
+		}
+		long px = Math.round(x), py = Math.round(y);
+		for (line_t line : graph.getLeaf(leaf).lines_i) {
+			long x1 = Math.round(line.p1.x), y1 = Math.round(line.p1.y);
+			long x2 = Math.round(line.p2.x), y2 = Math.round(line.p2.y);
+			if ((px - x1) * (y2 - y1) - (py - y1) * (x2 - x1) < 0) {
+				return Placement.OUTSIDE;
+			}
+		}
+		sectordef_t e = map.getSectorStore().get(sector);
+		if ("-".equals(e.floorflat)) {
+			return Placement.VOID;
+		}
+		if (e.ceilingheight <= e.floorheight) {
+			return Placement.CLOSED;
+		}
+		return Placement.INSIDE;
+	}
+
+	/*
+	==================
+	=
+	= PointOnSide
+	=
+	= R_PointOnSide of Doom on a divline as WadWriter writes it, every value
+	= rounded to a whole number. Returns side 0 (front) if the point is right
+	= of the line, else 1 (back), also on the line
+	==================
+	*/
+
+	static int PointOnSide(double x, double y, double lx, double ly, double ldx, double ldy) {
+		long dx = Math.round(x) - Math.round(lx);
+		long dy = Math.round(y) - Math.round(ly);
+		return (dx * Math.round(ldy) - dy * Math.round(ldx) > 0 ? 0 : 1);
+	}
+
+	/*
+	================
+	=
+	= classifyThings
+	=
+	= Places all things of the map in parallel. The area of a thing is set
+	= to its sector, -1 if it is outside
+	================
+	*/
+
+	public Placement[] classifyThings() {
+		List<worldthing_t> thingStore = map.getThingStore();
+		Placement[] placements = new Placement[thingStore.size()];
+		IntStream.range(0, thingStore.size()).parallel().forEach((i) -> {
+			worldthing_t thing = thingStore.get(i);
+			int leaf = locate(thing.origin.x, thing.origin.y);
+			placements[i] = classify(leaf, thing.origin.x, thing.origin.y);
+			thing.area = (placements[i] == Placement.OUTSIDE ? -1 : graph.getSector(leaf));
+		});
+		return placements;
+	}
+
+	/**
+	 * Prints a warning for every thing that is not inside.
+	 */
+	public static void report(PrintStream out, String mapname, List<worldthing_t> thingStore, Placement[] placements) {
+		for (int i = 0; i < placements.length; i++) {
+			if (placements[i] != Placement.INSIDE) {
+				worldthing_t thing = thingStore.get(i);
+				out.println(String.format("WARNING: %s thing %d (type %d) at (%.0f,%.0f) is %s",
+						mapname, i, thing.type, thing.origin.x, thing.origin.y, placements[i].name().toLowerCase()));
+			}
+		}
+	}
+}
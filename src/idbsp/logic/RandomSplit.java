@@ -0,0 +1,55 @@
+package idbsp.logic;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * RandomSplit
+ *
+ * Grades n lines of the list picked at random, all lines if none of them
+ * partitions the list. The picks only depend on the seed and the length of
+ * the list, so a build is repeatable.
+ *
+ */
+public class RandomSplit implements SplitStrategy {
+
+	private final int n;
+	private final long seed;
+
+
+	public RandomSplit(int n, long seed) {
+		if (n < 1) {
+			throw new IllegalArgumentException(String.format("RandomSplit: bad candidate count %d", n));
+		}
+		this.n = n;
+		this.seed = seed;
+	}
+
+	@Override
+	public String getName() {
+		return "random:" + n + ":" + seed;
+	}
+
+	@Override
+	public int[] candidates(int pass, int[] lines_i, SegmentStore store) {
+		int c = lines_i.length;
+		if (c <= n) {
+			return (pass == 0 ? SplitStrategy.all(lines_i) : null);
+		}
+		if (pass == 0) {
+			// the first n of a partial Fisher-Yates shuffle
+			Random random = new Random(seed * 31 + c);
+			int[] shuffled = SplitStrategy.all(lines_i);
+			for (int k = 0; k < n; k++) {
+				int j = k + random.nextInt(c - k);
+				int t = shuffled[k];
+				shuffled[k] = shuffled[j];
+				shuffled[j] = t;
+			}
+			int[] candidates = Arrays.copyOf(shuffled, n);
+			Arrays.sort(candidates);
+			return candidates;
+		}
+		return (pass == 1 ? SplitStrategy.all(lines_i) : null);
+	}
+}
@@ -0,0 +1,445 @@
+package idbsp.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import idbsp.types.worldline_t;
+
+/**
+ * Reject
+ *
+ * Which sectors can see each other, for the REJECT lump Doom uses to skip
+ * sight checks between monsters and the player. Sight passes from sector
+ * to sector through portals, the two-sided lines between two sectors. A
+ * sector sees its neighbors; a sector further away is seen if one straight
+ * line passes through the whole chain of portals to it. Each portal of the
+ * chain is clipped to the region a line through the first portal and the
+ * last one can still reach, the chain ends when nothing is left.
+ *
+ * The clipping keeps what lies on the edge of the region, so the table
+ * never rejects two sectors that see each other. As in Quake's vis, every
+ * portal first gets the sectors it might see, found by a flood through the
+ * portals in front of it; a chain is only followed while it might still
+ * show a sector not seen yet. Where the chains of a sector take more than
+ * MAX_STEPS steps, it is taken to see every sector connected to it.
+ * Sectors are done in parallel, one source sector per task.
+ *
+ * Doom finds the sector of a thing from the first seg of its BSP leaf. In
+ * maps whose sides disagree on the sector of an area, like door tracks,
+ * the sectors of one leaf are thus one place, and see what any of them
+ * sees. The result is kept as bits, one row of words per sector.
+ *
+ */
+public class Reject {
+
+	private static final double EPSILON = 0.01;	// distance to a clip line that is still on it
+	private static final int MAX_STEPS = 1 << 22;	// portal clips per source sector
+
+	private static class Portal {
+		int to;										// sector behind it
+		double lx, ly, rx, ry;						// left and right end seen from the from sector
+		long[] mightsee;							// sectors behind it a chain through it could reach
+	}
+
+	private final int sectors;
+	private final int words;						// per row
+	private final long[] visible;
+	private final List<List<Portal>> portals = new ArrayList<>();	// out of each sector
+	private final List<Portal> portalList = new ArrayList<>();
+	private int exhausted;
+
+
+	private Reject(int sectors) {
+		this.sectors = sectors;
+		this.words = (sectors + 63) >>> 6;
+		this.visible = new long[sectors * words];
+		for (int i = 0; i < sectors; i++) {
+			portals.add(new ArrayList<>());
+		}
+	}
+
+	/*
+	================
+	=
+	= build
+	=
+	= The sectors of the map and the leaves of its tree are those of graph
+	================
+	*/
+
+	public static Reject build(DoomMap map, SectorGraph graph) {
+		Reject reject = new Reject(graph.getSectorCount());
+		for (worldline_t line : map.getLineStore()) {
+			if (line.side.length < 2 || line.side[0].sector == line.side[1].sector) {
+				continue;
+			}
+			// sight from the front side passes with p1 on the left
+			reject.addPortal(line.side[0].sector, line.side[1].sector, line.p1.x, line.p1.y, line.p2.x, line.p2.y);
+			reject.addPortal(line.side[1].sector, line.side[0].sector, line.p2.x, line.p2.y, line.p1.x, line.p1.y);
+		}
+
+		IntStream.range(0, reject.portalList.size()).parallel().forEach((i) -> reject.baseVis(reject.portalList.get(i)));
+		IntStream.range(0, reject.sectors).parallel().forEach(reject::flood);
+
+		reject.symmetric();
+		reject.mergeLeaves(graph);
+		reject.symmetric();
+		return reject;
+	}
+
+	/**
+	 * Seeing goes both ways.
+	 */
+	private void symmetric() {
+		for (int i = 0; i < sectors; i++) {
+			for (int j = 0; j < i; j++) {
+				if (isVisible(i, j) || isVisible(j, i)) {
+					set(i, j);
+					set(j, i);
+				}
+			}
+		}
+	}
+
+	/*
+	================
+	=
+	= mergeLeaves
+	=
+	= Every sector of a leaf sees what the other sectors of the leaf see
+	================
+	*/
+
+	private void mergeLeaves(SectorGraph graph) {
+		long[] rows = visible.clone();
+		for (int leaf = 0; leaf < graph.getLeafCount(); leaf++) {
+			for (int a = 0; a < graph.getLeafSectorCount(leaf); a++) {
+				int i = graph.getLeafSector(leaf, a);
+				for (int b = 0; b < graph.getLeafSectorCount(leaf); b++) {
+					int j = graph.getLeafSector(leaf, b);
+					for (int w = 0; i != j && w < words; w++) {
+						visible[i * words + w] |= rows[j * words + w];
+					}
+				}
+			}
+		}
+	}
+
+	private void addPortal(int from, int to, double lx, double ly, double rx, double ry) {
+		Portal portal = new Portal();
+		portal.to = to;
+		portal.lx = lx;
+		portal.ly = ly;
+		portal.rx = rx;
+		portal.ry = ry;
+		portals.get(from).add(portal);
+		portalList.add(portal);
+	}
+
+	private void set(int i, int j) {
+		visible[i * words + (j >>> 6)] |= 1L << (j & 63);
+	}
+
+	/**
+	 * True if sector i can see sector j.
+	 */
+	public boolean isVisible(int i, int j) {
+		return (visible[i * words + (j >>> 6)] & (1L << (j & 63))) != 0;
+	}
+
+	public int getSectors() {
+		return sectors;
+	}
+
+	/**
+	 * Source sectors that ran out of steps and see everything connected.
+	 */
+	public int getExhausted() {
+		return exhausted;
+	}
+
+	/**
+	 * Pairs of sectors that cannot see each other, both ways counted.
+	 */
+	public int countRejected() {
+		int count = sectors * sectors;
+		for (long word : visible) {
+			count -= Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/*
+	================
+	=
+	= baseVis
+	=
+	= The sectors reachable from a portal through portals that are at
+	= least partly in front of it and have it at least partly behind them,
+	= since a sight line never comes back once through
+	================
+	*/
+
+	private void baseVis(Portal portal) {
+		portal.mightsee = new long[words];
+		int[] stack = new int[sectors];
+		int top = 0;
+		stack[top++] = portal.to;
+		portal.mightsee[portal.to >>> 6] |= 1L << (portal.to & 63);
+		while (top > 0) {
+			int sector = stack[--top];
+			for (Portal next : portals.get(sector)) {
+				if ((portal.mightsee[next.to >>> 6] & (1L << (next.to & 63))) != 0) {
+					continue;
+				}
+				if (clip(new double[] { next.lx, next.ly, next.rx, next.ry }, portal.lx, portal.ly, portal.rx, portal.ry) == null
+						|| clip(new double[] { portal.lx, portal.ly, portal.rx, portal.ry }, next.rx, next.ry, next.lx, next.ly) == null) {
+					continue;
+				}
+				portal.mightsee[next.to >>> 6] |= 1L << (next.to & 63);
+				stack[top++] = next.to;
+			}
+		}
+	}
+
+	/*
+	================
+	=
+	= flood
+	=
+	= Follows the portal chains from one source sector
+	================
+	*/
+
+	private static class Flood {
+		final int source;
+		final boolean[] onPath;
+		final long[] seen;
+		int steps;
+
+		Flood(int source, int sectors, int words) {
+			this.source = source;
+			this.onPath = new boolean[sectors];
+			this.seen = new long[words];
+		}
+
+		void see(int sector) {
+			seen[sector >>> 6] |= 1L << (sector & 63);
+		}
+
+		/**
+		 * True if both might and mightsee hold a sector not seen yet.
+		 */
+		boolean anyNew(long[] might, long[] mightsee) {
+			for (int i = 0; i < might.length; i++) {
+				if ((might[i] & mightsee[i] & ~seen[i]) != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private void flood(int source) {
+		Flood flood = new Flood(source, sectors, words);
+		flood.see(source);
+		flood.onPath[source] = true;
+		for (Portal first : portals.get(source)) {
+			flood.see(first.to);
+			if (!flood.anyNew(first.mightsee, first.mightsee)) {
+				continue;
+			}
+			double[] s = { first.lx, first.ly, first.rx, first.ry };
+			flood.onPath[first.to] = true;
+			if (!follow(flood, s, null, first.to, first.mightsee)) {
+				connected(flood);
+				break;
+			}
+			flood.onPath[first.to] = false;
+		}
+		System.arraycopy(flood.seen, 0, visible, source * words, words);
+	}
+
+	/*
+	================
+	=
+	= follow
+	=
+	= Clips the portals out of sector to the sight lines through the source
+	= portal and the pass portal that led into sector, null right after the
+	= source, and follows those with anything left. The source is narrowed
+	= to what sees the clipped portal through the pass portal. might are
+	= the sectors the chain so far might still see. False if the steps ran
+	= out
+	================
+	*/
+
+	private boolean follow(Flood flood, double[] source, double[] pass, int sector, long[] might) {
+		for (Portal portal : portals.get(sector)) {
+			if (flood.onPath[portal.to]) {
+				continue;
+			}
+			if (!flood.anyNew(might, portal.mightsee)) {
+				continue;
+			}
+			if (++flood.steps > MAX_STEPS) {
+				return false;
+			}
+
+			double[] target = { portal.lx, portal.ly, portal.rx, portal.ry };
+			target = clip(target, source[0], source[1], source[2], source[3]);
+			double[] narrowed = source;
+			if (target != null && pass != null) {
+				target = clip(target, pass[0], pass[1], pass[2], pass[3]);
+				target = clipToSeparators(target, source, pass);
+				if (target != null) {
+					narrowed = clipToSeparators(source, target, pass);
+				}
+			}
+			if (target == null) {
+				continue;
+			}
+
+			flood.see(portal.to);
+			if (narrowed == null) {
+				continue;						// seen only along an edge
+			}
+			long[] nextMight = new long[words];
+			for (int i = 0; i < words; i++) {
+				nextMight[i] = might[i] & portal.mightsee[i];
+			}
+			flood.onPath[portal.to] = true;
+			boolean done = follow(flood, narrowed, target, portal.to, nextMight);
+			flood.onPath[portal.to] = false;
+			if (!done) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ran out of steps: every sector connected to the source counts as
+	 * seen.
+	 */
+	private void connected(Flood flood) {
+		synchronized (this) {
+			exhausted++;
+		}
+		int[] stack = new int[sectors];
+		int top = 0;
+		Arrays.fill(flood.onPath, false);
+		stack[top++] = flood.source;
+		flood.onPath[flood.source] = true;
+		while (top > 0) {
+			int sector = stack[--top];
+			flood.see(sector);
+			for (Portal portal : portals.get(sector)) {
+				if (!flood.onPath[portal.to]) {
+					flood.onPath[portal.to] = true;
+					stack[top++] = portal.to;
+				}
+			}
+		}
+	}
+
+	/*
+	================
+	=
+	= clipToSeparators
+	=
+	= A separator goes through an end of the source and an end of the pass
+	= portal with the rest of the two on opposite sides. Sight lines through
+	= both portals stay on the pass side beyond the pass portal. With source
+	= and target swapped, clips the source to what the target sees
+	================
+	*/
+
+	private static double[] clipToSeparators(double[] target, double[] source, double[] pass) {
+		for (int i = 0; i < 4 && target != null; i++) {
+			int a = 2 * (i >> 1), b = 2 * (i & 1);
+			double ax = source[a], ay = source[a + 1];
+			double bx = pass[b], by = pass[b + 1];
+			double dx = bx - ax, dy = by - ay;
+			double length = Math.sqrt(dx * dx + dy * dy);
+			if (length < EPSILON) {
+				continue;
+			}
+			double sourceSide = side(ax, ay, dx, dy, length, source[2 - a], source[3 - a]);
+			double passSide = side(ax, ay, dx, dy, length, pass[2 - b], pass[3 - b]);
+			if (sourceSide > EPSILON && passSide < -EPSILON) {
+				target = clip(target, bx, by, ax, ay);
+			} else if (sourceSide < -EPSILON && passSide > EPSILON) {
+				target = clip(target, ax, ay, bx, by);
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Signed distance of (x, y) to the line through (ax, ay) along
+	 * (dx, dy), positive on the left.
+	 */
+	private static double side(double ax, double ay, double dx, double dy, double length, double x, double y) {
+		return (dx * (y - ay) - dy * (x - ax)) / length;
+	}
+
+	/*
+	================
+	=
+	= clip
+	=
+	= The part of segment to the left of the line from (x1, y1) to (x2, y2),
+	= or on it. Null if nothing is left
+	================
+	*/
+
+	private static double[] clip(double[] segment, double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1, dy = y2 - y1;
+		double length = Math.sqrt(dx * dx + dy * dy);
+		if (length < EPSILON) {
+			return segment;
+		}
+		double d1 = side(x1, y1, dx, dy, length, segment[0], segment[1]);
+		double d2 = side(x1, y1, dx, dy, length, segment[2], segment[3]);
+		if (d1 >= -EPSILON && d2 >= -EPSILON) {
+			return segment;
+		}
+		if (d1 < -EPSILON && d2 < -EPSILON) {
+			return null;
+		}
+
+		double t = (d1 + EPSILON) / (d1 - d2);			// where the segment comes within EPSILON
+		double x = segment[0] + t * (segment[2] - segment[0]);
+		double y = segment[1] + t * (segment[3] - segment[1]);
+		if (d1 < -EPSILON) {
+			return new double[] { x, y, segment[2], segment[3] };
+		}
+		return new double[] { segment[0], segment[1], x, y };
+	}
+
+	/*
+	================
+	=
+	= toLump
+	=
+	= The REJECT lump: bit i * sectors + j, lowest bit first, is set if
+	= sector i cannot see sector j
+	================
+	*/
+
+	public byte[] toLump() {
+		byte[] lump = new byte[(sectors * sectors + 7) >>> 3];
+		for (int i = 0; i < sectors; i++) {
+			for (int j = 0; j < sectors; j++) {
+				if (!isVisible(i, j)) {
+					int bit = i * sectors + j;
+					lump[bit >>> 3] |= 1 << (bit & 7);
+				}
+			}
+		}
+		return lump;
+	}
+}
@@ -0,0 +1,80 @@
+package idbsp.logic;
+
+import java.util.List;
+import java.util.Objects;
+
+import idbsp.types.sectordef_t;
+import idbsp.types.worldline_t;
+import idbsp.types.worldside_t;
+
+/**
+ * SectorBuilder
+ *
+ * Turns the sectordef copies of the sides of a map into sectors. Sides
+ * with equal sectordefs, same heights, flats, light, special and tag, get
+ * the same sector: one shared sectordef and its number in the sector
+ * store. Sectors are numbered in line and side order, the order they are
+ * written in.
+ *
+ */
+public class SectorBuilder {
+
+	private SectorBuilder() {
+	}
+
+	/*
+	================
+	=
+	= build
+	=
+	= Fills the sector store of the map and sector and sectordef of every
+	= side. The table of sectors is open addressed, with room for every
+	= side having its own sector
+	================
+	*/
+
+	public static void build(DoomMap map) {
+		List<sectordef_t> sectorStore = map.getSectorStore();
+		sectorStore.clear();
+
+		int sides = 0;
+		for (worldline_t line : map.getLineStore()) {
+			sides += line.side.length;
+		}
+		int[] table = new int[Integer.highestOneBit(Math.max(1, 2 * sides)) << 1];	// sector + 1, 0 for free
+		int mask = table.length - 1;
+
+		for (worldline_t line : map.getLineStore()) {
+			for (worldside_t side : line.side) {
+				sectordef_t e = side.sectordef;
+				int slot = hash(e) & mask;
+				while (table[slot] != 0 && !equal(sectorStore.get(table[slot] - 1), e)) {
+					slot = (slot + 1) & mask;
+				}
+				if (table[slot] == 0) {
+					sectorStore.add(e);
+					table[slot] = sectorStore.size();
+				}
+				side.sector = table[slot] - 1;
+				side.sectordef = sectorStore.get(side.sector);
+			}
+		}
+	}
+
+	private static int hash(sectordef_t e) {
+		int h = e.floorheight;
+		h = 31 * h + e.ceilingheight;
+		h = 31 * h + Objects.hashCode(e.floorflat);
+		h = 31 * h + Objects.hashCode(e.ceilingflat);
+		h = 31 * h + e.lightlevel;
+		h = 31 * h + e.special;
+		h = 31 * h + e.tag;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(sectordef_t a, sectordef_t b) {
+		return a.floorheight == b.floorheight && a.ceilingheight == b.ceilingheight
+				&& Objects.equals(a.floorflat, b.floorflat) && Objects.equals(a.ceilingflat, b.ceilingflat)
+				&& a.lightlevel == b.lightlevel && a.special == b.special && a.tag == b.tag;
+	}
+}
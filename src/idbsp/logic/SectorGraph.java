@@ -0,0 +1,178 @@
+package idbsp.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import idbsp.types.bspnode_t;
+import idbsp.types.line_t;
+import idbsp.types.worldline_t;
+
+/**
+ * SectorGraph
+ *
+ * Which sectors are in which leaves of a tree and which sectors border on
+ * each other, for the work that floods a map sector by sector. Needs the
+ * sectors of the sides, see SectorBuilder. Leaves are numbered in the
+ * order they are written as subsectors.
+ *
+ * Every relation is kept as offsets and values in flat arrays: the sectors
+ * of leaf l are leafSectors[leafStart[l]] to leafSectors[leafStart[l + 1]
+ * - 1], in increasing order, and the same for the leaves of a sector and
+ * the neighbors of a sector.
+ *
+ */
+public class SectorGraph {
+
+	private final int sectors;
+	private final bspnode_t[] leaves;
+	private final int[] leafSector;					// sector of the first seg
+	private final int[] leafStart, leafSectors;
+	private final int[] sectorStart, sectorLeaves;
+	private final int[] neighborStart, neighbors;
+
+
+	public SectorGraph(DoomMap map, bspnode_t node) {
+		sectors = map.getSectorStore().size();
+
+		List<bspnode_t> leafList = new ArrayList<>();
+		collectLeaves(node, leafList);
+		leaves = leafList.toArray(new bspnode_t[leafList.size()]);
+		leafSector = new int[leaves.length];
+
+		int pairs = 0;
+		for (bspnode_t leaf : leaves) {
+			pairs += leaf.lines_i.size();
+		}
+		int[] from = new int[pairs], to = new int[pairs];
+		int count = 0;
+		for (int l = 0; l < leaves.length; l++) {
+			leafSector[l] = -1;
+			for (line_t line : leaves[l].lines_i) {
+				from[count] = l;
+				to[count++] = line.linedef.side[line.side].sector;
+			}
+			if (!leaves[l].lines_i.isEmpty()) {
+				leafSector[l] = to[count - leaves[l].lines_i.size()];
+			}
+		}
+		int[][] csr = compress(leaves.length, from, to, count);
+		leafStart = csr[0];
+		leafSectors = csr[1];
+
+		csr = compress(sectors, to, from, count);
+		sectorStart = csr[0];
+		sectorLeaves = csr[1];
+
+		List<worldline_t> lineStore = map.getLineStore();
+		from = new int[2 * lineStore.size()];
+		to = new int[2 * lineStore.size()];
+		count = 0;
+		for (worldline_t line : lineStore) {
+			if (line.side.length < 2 || line.side[0].sector == line.side[1].sector) {
+				continue;
+			}
+			from[count] = line.side[0].sector;
+			to[count++] = line.side[1].sector;
+			from[count] = line.side[1].sector;
+			to[count++] = line.side[0].sector;
+		}
+		csr = compress(sectors, from, to, count);
+		neighborStart = csr[0];
+		neighbors = csr[1];
+	}
+
+	private static void collectLeaves(bspnode_t node, List<bspnode_t> leaves) {
+		if (node.lines_i != null) {
+			leaves.add(node);
+			return;
+		}
+		collectLeaves(node.side[0], leaves);
+		collectLeaves(node.side[1], leaves);
+	}
+
+	/*
+	================
+	=
+	= compress
+	=
+	= The pairs from[i], to[i] as offsets and values per from, sorted and
+	= without repeats
+	================
+	*/
+
+	private static int[][] compress(int n, int[] from, int[] to, int count) {
+		int[] start = new int[n + 1];
+		for (int i = 0; i < count; i++) {
+			start[from[i] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			start[i + 1] += start[i];
+		}
+		int[] values = new int[count];
+		int[] fill = Arrays.copyOf(start, n);
+		for (int i = 0; i < count; i++) {
+			values[fill[from[i]]++] = to[i];
+		}
+
+		int k = 0;
+		int first = 0;
+		for (int i = 0; i < n; i++) {
+			int end = start[i + 1];
+			Arrays.sort(values, first, end);
+			start[i] = k;
+			for (int j = first; j < end; j++) {
+				if (j == first || values[j] != values[j - 1]) {
+					values[k++] = values[j];
+				}
+			}
+			first = end;
+		}
+		start[n] = k;
+		return new int[][] { start, Arrays.copyOf(values, k) };
+	}
+
+	public int getSectorCount() {
+		return sectors;
+	}
+
+	public int getLeafCount() {
+		return leaves.length;
+	}
+
+	public bspnode_t getLeaf(int leaf) {
+		return leaves[leaf];
+	}
+
+	/**
+	 * The sector Doom gives a leaf, that of its first seg. -1 for a leaf
+	 * without segs.
+	 */
+	public int getSector(int leaf) {
+		return leafSector[leaf];
+	}
+
+	public int getLeafSectorCount(int leaf) {
+		return leafStart[leaf + 1] - leafStart[leaf];
+	}
+
+	public int getLeafSector(int leaf, int k) {
+		return leafSectors[leafStart[leaf] + k];
+	}
+
+	public int getSectorLeafCount(int sector) {
+		return sectorStart[sector + 1] - sectorStart[sector];
+	}
+
+	public int getSectorLeaf(int sector, int k) {
+		return sectorLeaves[sectorStart[sector] + k];
+	}
+
+	public int getNeighborCount(int sector) {
+		return neighborStart[sector + 1] - neighborStart[sector];
+	}
+
+	public int getNeighbor(int sector, int k) {
+		return neighbors[neighborStart[sector] + k];
+	}
+}
@@ -0,0 +1,224 @@
+package idbsp.logic;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SegmentIndex
+ *
+ * Bounding volume hierarchy over the lines of one node. A split candidate
+ * is graded by descending the hierarchy: boxes lying completely on one side
+ * of the divline (outside of the colinear band of PointOnSide) count all of
+ * their lines at once, only the lines of boxes crossing the divline are
+ * tested one by one.
+ *
+ */
+class SegmentIndex {
+
+	private static final int LEAF_LINES = 8;
+	private static final double BAND = 2.0 + 1.0;	// colinear band of PointOnSide plus a safety margin
+
+	private final int[] lines_i;
+	private final double[] x1, y1, x2, y2;
+	private final int[] order;
+	private final double[] midx, midy;
+
+	private final double[] bx1, bx2, by1, by2;
+	private final int[] first, count, child;		// child: first of the two children, -1 for a leaf
+	private int nodes = 0;
+
+	private final SplitStrategy strategy;
+	private final GeometryKernel kernel;
+	private final LongAdder calls;		// LineOnSide calls of evaluate
+
+	SegmentIndex(SegmentStore store, int[] lines_i, SplitStrategy strategy, GeometryKernel kernel, LongAdder calls) {
+		this.lines_i = lines_i;
+		this.strategy = strategy;
+		this.kernel = kernel;
+		this.calls = calls;
+		this.x1 = store.x1();
+		this.y1 = store.y1();
+		this.x2 = store.x2();
+		this.y2 = store.y2();
+
+		int c = lines_i.length;
+		order = new int[c];
+		midx = new double[c];
+		midy = new double[c];
+		for (int i = 0; i < c; i++) {
+			int line = lines_i[i];
+			order[i] = i;
+			midx[i] = (x1[line] + x2[line]) / 2;
+			midy[i] = (y1[line] + y2[line]) / 2;
+		}
+
+		int capacity = 2 * (c / (LEAF_LINES / 2) + 1);
+		bx1 = new double[capacity];
+		bx2 = new double[capacity];
+		by1 = new double[capacity];
+		by2 = new double[capacity];
+		first = new int[capacity];
+		count = new int[capacity];
+		child = new int[capacity];
+
+		build(newNode(0, c));
+	}
+
+	private int newNode(int from, int n) {
+		int index = nodes++;
+		first[index] = from;
+		count[index] = n;
+		child[index] = -1;
+
+		double left = Double.MAX_VALUE, right = -Double.MAX_VALUE;
+		double bottom = Double.MAX_VALUE, top = -Double.MAX_VALUE;
+		for (int i = from; i < from + n; i++) {
+			int line = lines_i[order[i]];
+			left = Math.min(left, Math.min(x1[line], x2[line]));
+			right = Math.max(right, Math.max(x1[line], x2[line]));
+			bottom = Math.min(bottom, Math.min(y1[line], y2[line]));
+			top = Math.max(top, Math.max(y1[line], y2[line]));
+		}
+		bx1[index] = left;
+		bx2[index] = right;
+		by1[index] = bottom;
+		by2[index] = top;
+		return index;
+	}
+
+	private void build(int index) {
+		int n = count[index];
+		if (n <= LEAF_LINES) {
+			return;
+		}
+
+		// split at the median of the line midpoints along the longer box side
+		int from = first[index];
+		double[] key = (bx2[index] - bx1[index] >= by2[index] - by1[index] ? midx : midy);
+		select(key, from, from + n - 1, from + n / 2);
+
+		int left = newNode(from, n / 2);
+		newNode(from + n / 2, n - n / 2);
+		child[index] = left;
+		build(left);
+		build(left + 1);
+	}
+
+	/*
+	================
+	=
+	= select
+	=
+	= Reorders order[lo..hi] so that order[k] is the line with the k-th
+	= smallest key, lines with smaller keys before it, larger ones after it
+	================
+	*/
+
+	private void select(double[] key, int lo, int hi, int k) {
+		while (lo < hi) {
+			double pivot = key[order[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (key[order[i]] < pivot) i++;
+				while (key[order[j]] > pivot) j--;
+				if (i <= j) {
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/*
+	================
+	=
+	= evaluate
+	=
+	= Same as EvaluateSplit: returns the grade of the split along the given
+	= line, MAXINT if it does not divide the lines at all, or any grade above
+	= worstgrade as soon as it is clear that the split can't be better
+	================
+	*/
+
+	int evaluate(int spliton, int worstgrade) {
+		double lx = x1[spliton], ly = y1[spliton];
+		double ldx = x2[spliton] - lx, ldy = y2[spliton] - ly;
+		double len = Math.sqrt(ldx * ldx + ldy * ldy);
+		long fb = count(0, 0L, spliton, lx, ly, ldx, ldy, BAND * len, worstgrade);
+
+		int frontcount = (int) (fb >>> 32);
+		int backcount = (int) fb;
+		int grade = grade(frontcount, backcount);
+		if (grade > worstgrade) {
+			return grade;
+		}
+		if (frontcount == 0 || backcount == 0) {
+			return Integer.MAX_VALUE;
+		}
+		return grade;
+	}
+
+	private int grade(int frontcount, int backcount) {
+		return strategy.grade(frontcount, backcount, lines_i.length);
+	}
+
+	/*
+	================
+	=
+	= count
+	=
+	= Adds the front (upper half) and back (lower half) counts of the lines
+	= below index to fb. Stops as soon as the grade exceeds worstgrade
+	================
+	*/
+
+	private long count(int index, long fb, int spliton, double lx, double ly, double ldx, double ldy, double band, int worstgrade) {
+		double s1 = (bx1[index] - lx) * ldy - (by1[index] - ly) * ldx;
+		double s2 = (bx2[index] - lx) * ldy - (by1[index] - ly) * ldx;
+		double s3 = (bx1[index] - lx) * ldy - (by2[index] - ly) * ldx;
+		double s4 = (bx2[index] - lx) * ldy - (by2[index] - ly) * ldx;
+
+		int n = count[index];
+		if (s1 > band && s2 > band && s3 > band && s4 > band) {
+			return fb + ((long) n << 32);
+		}
+		if (s1 < -band && s2 < -band && s3 < -band && s4 < -band) {
+			return fb + n;
+		}
+
+		if (child[index] >= 0) {
+			fb = count(child[index], fb, spliton, lx, ly, ldx, ldy, band, worstgrade);
+			if (grade((int) (fb >>> 32), (int) fb) > worstgrade) {
+				return fb;
+			}
+			return count(child[index] + 1, fb, spliton, lx, ly, ldx, ldy, band, worstgrade);
+		}
+
+		calls.add(n);
+		for (int i = first[index]; i < first[index] + n; i++) {
+			int line_p = lines_i[order[i]];
+			int side = (line_p == spliton ? 0 : kernel.LineOnSide(x1[line_p], y1[line_p], x2[line_p], y2[line_p], lx, ly, ldx, ldy));
+			switch (side) {
+			case 0:
+				fb += 1L << 32;
+				break;
+			case 1:
+				fb += 1;
+				break;
+			case -2:
+				fb += (1L << 32) + 1;
+				break;
+			}
+		}
+		return fb;
+	}
+}
@@ -0,0 +1,152 @@
+package idbsp.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import idbsp.types.NXPoint;
+import idbsp.types.line_t;
+import idbsp.types.worldline_t;
+
+/**
+ * SegmentStore
+ *
+ * The segments of the partitioner as parallel primitive arrays. A segment
+ * is an index into the store, lists of segments are int arrays of indices.
+ *
+ * Segments are added and changed under the store's lock, the arrays are
+ * replaced by larger copies when full. Readers fetch the arrays once and
+ * index them without locking: a segment is only ever read by the task that
+ * added or changed it, or by tasks forked after that.
+ *
+ */
+public class SegmentStore {
+
+	private static final class Columns {
+		final double[]	x1, y1, x2, y2;
+		final int[]		linedef, side, offset;
+
+		Columns(int capacity, Columns from, int size) {
+			x1 = new double[capacity];
+			y1 = new double[capacity];
+			x2 = new double[capacity];
+			y2 = new double[capacity];
+			linedef = new int[capacity];
+			side = new int[capacity];
+			offset = new int[capacity];
+			if (from != null) {
+				System.arraycopy(from.x1, 0, x1, 0, size);
+				System.arraycopy(from.y1, 0, y1, 0, size);
+				System.arraycopy(from.x2, 0, x2, 0, size);
+				System.arraycopy(from.y2, 0, y2, 0, size);
+				System.arraycopy(from.linedef, 0, linedef, 0, size);
+				System.arraycopy(from.side, 0, side, 0, size);
+				System.arraycopy(from.offset, 0, offset, 0, size);
+			}
+		}
+	}
+
+	private final List<worldline_t> linedefs;
+	private volatile Columns columns;
+	private int size = 0;
+
+
+	public SegmentStore(List<worldline_t> linedefs, int capacity) {
+		this.linedefs = linedefs;
+		this.columns = new Columns(Math.max(capacity, 16), null, 0);
+	}
+
+	public List<worldline_t> getLinedefs() {
+		return linedefs;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public double[] x1() {
+		return columns.x1;
+	}
+
+	public double[] y1() {
+		return columns.y1;
+	}
+
+	public double[] x2() {
+		return columns.x2;
+	}
+
+	public double[] y2() {
+		return columns.y2;
+	}
+
+	public int[] linedef() {
+		return columns.linedef;
+	}
+
+	public int[] side() {
+		return columns.side;
+	}
+
+	public int[] offset() {
+		return columns.offset;
+	}
+
+	public synchronized int add(double x1, double y1, double x2, double y2, int linedef, int side, int offset) {
+		Columns c = columns;
+		if (size == c.x1.length) {
+			c = columns = new Columns(size * 2, c, size);
+		}
+		int i = size++;
+		c.x1[i] = x1;
+		c.y1[i] = y1;
+		c.x2[i] = x2;
+		c.y2[i] = y2;
+		c.linedef[i] = linedef;
+		c.side[i] = side;
+		c.offset[i] = offset;
+		return i;
+	}
+
+	public synchronized void set(int i, double x1, double y1, double x2, double y2, int offset) {
+		Columns c = columns;
+		c.x1[i] = x1;
+		c.y1[i] = y1;
+		c.x2[i] = x2;
+		c.y2[i] = y2;
+		c.offset[i] = offset;
+	}
+
+	/**
+	 * All segments of the store, in the order they were added.
+	 */
+	public int[] all() {
+		int[] lines = new int[size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = i;
+		}
+		return lines;
+	}
+
+	/**
+	 * The given segments as line_t, e.g. for the terminal nodes of the tree.
+	 */
+	public List<line_t> toLines(int[] lines) {
+		Columns c = columns;
+		List<line_t> lines_i = new ArrayList<>(lines.length);
+		for (int i : lines) {
+			line_t li = new line_t();
+			li.p1 = new NXPoint();
+			li.p1.x = c.x1[i];
+			li.p1.y = c.y1[i];
+			li.p2 = new NXPoint();
+			li.p2.x = c.x2[i];
+			li.p2.y = c.y2[i];
+			li.linedef = linedefs.get(c.linedef[i]);
+			li.side = c.side[i];
+			li.offset = c.offset[i];
+			li.grouped = false;
+			lines_i.add(li);
+		}
+		return lines_i;
+	}
+}
@@ -0,0 +1,98 @@
+package idbsp.logic;
+
+/**
+ * SplitStrategy
+ *
+ * Which lines of a list the partitioner grades as candidates for the
+ * divline, and how a split is graded. The candidates come in passes: the
+ * best candidate of the first pass that partitions the list at all wins,
+ * if no pass does the lines form a terminal node.
+ *
+ * Strategies must give the same candidates for lists with the same lines
+ * in the same order, otherwise parallel and memoized builds differ from
+ * the plain one.
+ *
+ */
+public interface SplitStrategy {
+
+	/**
+	 * Name and parameters as given to parse, part of the BspCache key.
+	 */
+	String getName();
+
+	/**
+	 * The candidates of a pass as indices into lines_i, null if there are
+	 * no more passes.
+	 */
+	int[] candidates(int pass, int[] lines_i, SegmentStore store);
+
+	/**
+	 * Grades a split, the LOWER the better. A split is good if it divides the
+	 * lines evenly without cutting many lines. The grade must not decrease
+	 * when frontcount or backcount grows, EvaluateSplit stops as soon as it
+	 * exceeds the best grade so far.
+	 */
+	default int grade(int frontcount, int backcount, int linecount) {
+		int maxl = Math.max(frontcount, backcount);
+		int newl = (frontcount + backcount) - linecount;	// measure for cuts (bad)
+		return maxl + newl * 8;
+	}
+
+	/*
+	================
+	=
+	= parse
+	=
+	= exhaustive | stride[:n] | random[:n[:seed]] | axis | twopass[:lines[:n]]
+	================
+	*/
+
+	static SplitStrategy parse(String spec) {
+		String[] parts = spec.split(":");
+		try {
+			switch (parts[0]) {
+			case "exhaustive":
+				if (parts.length == 1) {
+					return new ExhaustiveSplit();
+				}
+				break;
+			case "stride":
+				if (parts.length <= 2) {
+					return new StrideSplit(parts.length > 1 ? Integer.parseInt(parts[1]) : StrideSplit.DEFAULT_CANDIDATES);
+				}
+				break;
+			case "random":
+				if (parts.length <= 3) {
+					return new RandomSplit(parts.length > 1 ? Integer.parseInt(parts[1]) : StrideSplit.DEFAULT_CANDIDATES,
+							parts.length > 2 ? Long.parseLong(parts[2]) : 0);
+				}
+				break;
+			case "axis":
+				if (parts.length == 1) {
+					return new AxisFirstSplit();
+				}
+				break;
+			case "twopass":
+				if (parts.length <= 3) {
+					return new TwoPassSplit(parts.length > 1 ? Integer.parseInt(parts[1]) : TwoPassSplit.DEFAULT_LINES,
+							parts.length > 2 ? Integer.parseInt(parts[2]) : StrideSplit.DEFAULT_CANDIDATES);
+				}
+				break;
+			}
+		} catch (NumberFormatException _ex) {
+			//
+		}
+		throw new IllegalArgumentException(String.format("SplitStrategy: bad strategy %s", spec));
+	}
+
+	/**
+	 * All lines of the list, in list order.
+	 */
+	static int[] all(int[] lines_i) {
+		int[] candidates = new int[lines_i.length];
+		for (int i = 0; i < candidates.length; i++) {
+			candidates[i] = i;
+		}
+		return candidates;
+	}
+}
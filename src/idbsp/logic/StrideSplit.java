@@ -0,0 +1,44 @@
+package idbsp.logic;
+
+/**
+ * StrideSplit
+ *
+ * Grades every step-th line of the list, step chosen so that about n lines
+ * are graded: the (c / 40) + 1 of the original idbsp. If none of them
+ * partitions the list, all lines are graded.
+ *
+ */
+public class StrideSplit implements SplitStrategy {
+
+	static final int DEFAULT_CANDIDATES = 40;
+
+	private final int n;
+
+
+	public StrideSplit(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException(String.format("StrideSplit: bad candidate count %d", n));
+		}
+		this.n = n;
+	}
+
+	@Override
+	public String getName() {
+		return "stride:" + n;
+	}
+
+	@Override
+	public int[] candidates(int pass, int[] lines_i, SegmentStore store) {
+		int c = lines_i.length;
+		int step = (c / n) + 1;
+		if (pass == 0 && step > 1) {
+			int[] candidates = new int[(c + step - 1) / step];
+			for (int k = 0; k < candidates.length; k++) {
+				candidates[k] = k * step;
+			}
+			return candidates;
+		}
+		// possible to get here with non convex area if BSPSLIDE specials caused rejections
+		return (pass == (step > 1 ? 1 : 0) ? SplitStrategy.all(lines_i) : null);
+	}
+}
@@ -0,0 +1,104 @@
+package idbsp.logic;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import idbsp.types.bbox_t;
+
+/**
+ * SubtreeMemo
+ *
+ * The best split of the segment lists partitioned so far, keyed by the
+ * shape of the list: the segments in list order, moved so that the lower
+ * left corner of their bbox is the origin. Two lists of the same shape get
+ * the same grades for every candidate, so the split found for one is the
+ * split for the other.
+ *
+ * Only lists of whole-numbered segments are kept. For those the side tests
+ * and cuts only depend on differences of coordinates, which are exact, so
+ * taking a split from the memo gives the same tree as searching it. The
+ * memo holds at most MAX_ENTRIES lists and drops the least recently used.
+ *
+ */
+class SubtreeMemo {
+
+	static final int UNKNOWN = -2;		// not in the memo; -1 is a terminal node
+
+	private static final int MIN_LINES = 3;
+	private static final int MAX_LINES = 256;
+	private static final int MAX_ENTRIES = 1024;
+
+	static final class Key {
+		private final int[] shape;
+		private final int hash;
+
+		Key(int[] shape) {
+			this.shape = shape;
+			this.hash = Arrays.hashCode(shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof Key) && ((Key) o).hash == hash && Arrays.equals(((Key) o).shape, shape);
+		}
+	}
+
+	private final Map<Key, Integer> splits = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+
+	/**
+	 * The key of a list, null if the list is too small, too large or not
+	 * whole-numbered.
+	 */
+	Key key(SegmentStore store, int[] lines_i, bbox_t bbox) {
+		int c = lines_i.length;
+		if (c < MIN_LINES || c > MAX_LINES || !whole(bbox.x1) || !whole(bbox.y1)) {
+			return null;
+		}
+
+		double[] x1 = store.x1(), y1 = store.y1(), x2 = store.x2(), y2 = store.y2();
+		double ox = bbox.x1, oy = bbox.y1;
+		int[] shape = new int[4 * c];
+		for (int i = 0; i < c; i++) {
+			int line = lines_i[i];
+			if (!whole(x1[line]) || !whole(y1[line]) || !whole(x2[line]) || !whole(y2[line])) {
+				return null;
+			}
+			shape[4 * i] = (int) (x1[line] - ox);
+			shape[4 * i + 1] = (int) (y1[line] - oy);
+			shape[4 * i + 2] = (int) (x2[line] - ox);
+			shape[4 * i + 3] = (int) (y2[line] - oy);
+		}
+		return new Key(shape);
+	}
+
+	private static boolean whole(double v) {
+		return v == Math.rint(v) && Math.abs(v) < (1 << 30);
+	}
+
+	/**
+	 * The index of the best split in the list, -1 for a terminal node or
+	 * UNKNOWN.
+	 */
+	synchronized int get(Key key) {
+		Integer split = splits.get(key);
+		return (split == null ? UNKNOWN : split);
+	}
+
+	synchronized void put(Key key, int split) {
+		splits.put(key, split);
+	}
+}
@@ -0,0 +1,37 @@
+package idbsp.logic;
+
+/**
+ * TwoPassSplit
+ *
+ * Samples about n candidates by stride on lists of more than the given
+ * number of lines, where the split matters least for the final tree and
+ * costs most, and grades all lines of the smaller lists.
+ *
+ */
+public class TwoPassSplit implements SplitStrategy {
+
+	static final int DEFAULT_LINES = 256;
+
+	private final int lines;
+	private final StrideSplit stride;
+	private final ExhaustiveSplit exhaustive = new ExhaustiveSplit();
+
+
+	public TwoPassSplit(int lines, int n) {
+		if (lines < 1) {
+			throw new IllegalArgumentException(String.format("TwoPassSplit: bad line count %d", lines));
+		}
+		this.lines = lines;
+		this.stride = new StrideSplit(n);
+	}
+
+	@Override
+	public String getName() {
+		return "twopass:" + lines + ":" + stride.getName().substring("stride:".length());
+	}
+
+	@Override
+	public int[] candidates(int pass, int[] lines_i, SegmentStore store) {
+		return (lines_i.length > lines ? stride : exhaustive).candidates(pass, lines_i, store);
+	}
+}
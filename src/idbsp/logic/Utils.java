@@ -18,15 +18,23 @@ public class Utils {
 	*/
 
 	public static int LineOnSide (line_t wl, divline_t bl) {
-		int s1 = PointOnSide (wl.p1, bl);
-		int s2 = PointOnSide (wl.p2, bl);
+		return LineOnSide(wl.p1.x, wl.p1.y, wl.p2.x, wl.p2.y, bl);
+	}
+
+	public static int LineOnSide (double x1, double y1, double x2, double y2, divline_t bl) {
+		return LineOnSide(x1, y1, x2, y2, bl.pt.x, bl.pt.y, bl.dx, bl.dy);
+	}
+
+	public static int LineOnSide (double x1, double y1, double x2, double y2, double lx, double ly, double ldx, double ldy) {
+		int s1 = PointOnSide (x1, y1, lx, ly, ldx, ldy);
+		int s2 = PointOnSide (x2, y2, lx, ly, ldx, ldy);
 
 		if (s1 == s2) {
 			if (s1 == -1) {
 				// colinear, so see if the directions are the same
-				double dx = wl.p2.x - wl.p1.x;
-				double dy = wl.p2.y - wl.p1.y;
-				if (Math.signum(dx) == Math.signum(bl.dx) && Math.signum(dy) == Math.signum(bl.dy)) {
+				double dx = x2 - x1;
+				double dy = y2 - y1;
+				if (Math.signum(dx) == Math.signum(ldx) && Math.signum(dy) == Math.signum(ldy)) {
 					return 0;
 				}
 				return 1;
@@ -54,31 +62,39 @@ public class Utils {
 	*/
 
 	public static int PointOnSide(NXPoint p, divline_t l) {
+		return PointOnSide(p.x, p.y, l);
+	}
+	
+	public static int PointOnSide(double px, double py, divline_t l) {
+		return PointOnSide(px, py, l.pt.x, l.pt.y, l.dx, l.dy);
+	}
+	
+	public static int PointOnSide(double px, double py, double lx, double ly, double ldx, double ldy) {
 		
 		// Schnellprfung, wenn divline parallel zu den Achsen
 		
-		if (l.dx == 0) {
-			if (p.x > l.pt.x - 2 && p.x < l.pt.x + 2) {
+		if (ldx == 0) {
+			if (px > lx - 2 && px < lx + 2) {
 				return -1;
 			}
-			if (p.x < l.pt.x) {
-				return (l.dy > 0 ? 1 : 0);
+			if (px < lx) {
+				return (ldy > 0 ? 1 : 0);
 			}
-			return (l.dy < 0 ? 1 : 0);
+			return (ldy < 0 ? 1 : 0);
 		}
 		
-		if (l.dy == 0) {
-			if (p.y > l.pt.y - 2 && p.y < l.pt.y + 2) {
+		if (ldy == 0) {
+			if (py > ly - 2 && py < ly + 2) {
 				return -1;
 			}
-			if (p.y < l.pt.y) {
-				return (l.dx < 0 ? 1 : 0);
+			if (py < ly) {
+				return (ldx < 0 ? 1 : 0);
 			}
-			return (l.dx > 0 ? 1 : 0);
+			return (ldx > 0 ? 1 : 0);
 		}
 
-		double dx = p.x - l.pt.x;
-		double dy = p.y - l.pt.y;
+		double dx = px - lx;
+		double dy = py - ly;
 
 		// Kollinear? Innerhalb eines 2-Pixel-Streifens auf der divline?
 		// Ansatz quadratische Gleichung:
@@ -93,8 +109,8 @@ public class Utils {
 		// a * t^2 + b * t + c < 0 ?
 		// Frage: Ist b * b - 4 * a * c > 0 ? Ja -> kollinear
 		
-		double a = l.dx * l.dx + l.dy * l.dy;
-		double b = -2.0 * (l.dx * dx + l.dy * dy);
+		double a = ldx * ldx + ldy * ldy;
+		double b = -2.0 * (ldx * dx + ldy * dy);
 		double c = dx * dx + dy * dy - 4.0;		// 2 unit radius
 		double d = b * b - 4 * a * c;
 		
@@ -103,12 +119,12 @@ public class Utils {
 		}
 		
 		// Kreuzprodukt
-		//  dx     l.dx        0
-		//  dy  x  l.dy   =    0
-		//  0      0           dx * l.dy - dy * l.dx
+		//  dx     ldx        0
+		//  dy  x  ldy   =    0
+		//  0      0           dx * ldy - dy * ldx
 		// Frage: z-Achse des Kreuzprodukts positiv? Ja -> front
 		
-		return (dx * l.dy - dy * l.dx > 0 ? 0 : 1);			
+		return (dx * ldy - dy * ldx > 0 ? 0 : 1);			
 	}
 	
     public static void sleep(long millis) {
@@ -0,0 +1,399 @@
+package idbsp.logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import idbsp.types.bbox_t;
+import idbsp.types.bspnode_t;
+import idbsp.types.line_t;
+import idbsp.types.sectordef_t;
+import idbsp.types.worldline_t;
+import idbsp.types.worldside_t;
+import idbsp.types.worldthing_t;
+
+/**
+ * WadWriter
+ *
+ * Writes built maps into a PWAD. The lumps of every map are written as soon
+ * as the map is added, the directory and the header follow on close, so any
+ * number of maps goes into one file in a single pass.
+ *
+ * The REJECT table is only computed when asked for, else it is written
+ * with every sector seeing every other one.
+ *
+ */
+public class WadWriter implements Closeable {
+
+	private static final Charset CHARSET_ISO_8559_1 = Charset.forName("iso-8859-1");
+
+	private static final int HEADER_SIZE = 12;
+	private static final int DIRENTRY_SIZE = 16;
+
+	private static final int THING_SIZE = 10;
+	private static final int LINEDEF_SIZE = 14;
+	private static final int SIDEDEF_SIZE = 30;
+	private static final int VERTEX_SIZE = 4;
+	private static final int SEG_SIZE = 12;
+	private static final int SSECTOR_SIZE = 4;
+	private static final int NODE_SIZE = 28;
+	private static final int SECTOR_SIZE = 26;
+
+	private static final int NF_SUBSECTOR = 0x8000;
+
+	private static class Entry {
+		String name;
+		int filepos, size;
+	}
+
+	private final FileChannel channel;
+	private final List<Entry> directory = new ArrayList<>();
+	private int filepos = HEADER_SIZE;
+	private boolean reject = false;
+
+
+	public WadWriter(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		channel.position(HEADER_SIZE);
+	}
+
+	public void setReject(boolean reject) {
+		this.reject = reject;
+	}
+
+	/**
+	 * Writes the lumps of a built map, the marker lump named after the map
+	 * (e.g. E1M1) first. The lumps are built before the lock is taken, so
+	 * maps added from several threads only wait for each other's writes.
+	 */
+	public void addMap(String name, DoomMap map, bspnode_t node) throws IOException {
+		MapLumps lumps = new MapLumps(map);
+		lumps.build(node, reject);
+
+		synchronized (this) {
+			writeLump(name, null);
+			writeLump("THINGS", lumps.things);
+			writeLump("LINEDEFS", lumps.linedefs);
+			writeLump("SIDEDEFS", lumps.sidedefs);
+			writeLump("VERTEXES", lumps.vertexes);
+			writeLump("SEGS", lumps.segs);
+			writeLump("SSECTORS", lumps.ssectors);
+			writeLump("NODES", lumps.nodes);
+			writeLump("SECTORS", lumps.sectors);
+			writeLump("REJECT", lumps.reject);
+			writeLump("BLOCKMAP", lumps.blockmap);
+		}
+	}
+
+	private void writeLump(String name, ByteBuffer data) throws IOException {
+		Entry entry = new Entry();
+		entry.name = name;
+		entry.filepos = filepos;
+		entry.size = 0;
+
+		if (data != null) {
+			data.flip();
+			entry.size = data.remaining();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+
+		filepos += entry.size;
+		directory.add(entry);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			ByteBuffer dir = allocate(directory.size() * DIRENTRY_SIZE);
+			for (Entry entry : directory) {
+				dir.putInt(entry.filepos);
+				dir.putInt(entry.size);
+				putName(dir, entry.name);
+			}
+			dir.flip();
+			while (dir.hasRemaining()) {
+				channel.write(dir);
+			}
+
+			ByteBuffer header = allocate(HEADER_SIZE);
+			header.put("PWAD".getBytes(CHARSET_ISO_8559_1));
+			header.putInt(directory.size());
+			header.putInt(filepos);
+			header.flip();
+			channel.write(header, 0);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * The map name for a map file, e.g. E1M1 for maps/e1m1.dwd
+	 */
+	public static String mapName(Path path) {
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return (dot > 0 ? name.substring(0, dot) : name).toUpperCase();
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void putName(ByteBuffer buffer, String name) {
+		byte[] bytes = name.getBytes(CHARSET_ISO_8559_1);
+		for (int i = 0; i < 8; i++) {
+			buffer.put(i < bytes.length ? bytes[i] : 0);
+		}
+	}
+
+	private static short toShort(double v) {
+		long l = Math.round(v);
+		if (l < Short.MIN_VALUE || l > Short.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("WadWriter: coordinate %f out of range", v));
+		}
+		return (short) l;
+	}
+
+	private static void checkCount(int count, int max, String what) {
+		if (count > max) {
+			throw new IllegalArgumentException(String.format("WadWriter: too many %s (%d)", what, count));
+		}
+	}
+
+	/*
+	================
+	=
+	= MapLumps
+	=
+	= The lumps of one map. Vertexes are shared between lines and segs,
+	= sectors are those of the SectorBuilder
+	=
+	================
+	*/
+
+	private static class MapLumps {
+
+		private final DoomMap map;
+		private final Map<worldline_t, Integer> linenums = new IdentityHashMap<>();
+		private final Map<Integer, Integer> vertexnums = new HashMap<>();
+
+		private int[] vertexcoords = new int[256];
+		private int vertexcount = 0;
+
+		ByteBuffer things, linedefs, sidedefs, vertexes, segs, ssectors, nodes, sectors, reject, blockmap;
+		private int segcount = 0, ssectorcount = 0, nodecount = 0;
+
+		MapLumps(DoomMap map) {
+			this.map = map;
+			if (map.getSectorStore().isEmpty()) {
+				SectorBuilder.build(map);			// not from the loader
+			}
+		}
+
+		void build(bspnode_t node, boolean computeReject) {
+			buildThings();
+			buildLines();
+			buildTree(node);
+			buildSectors();
+			buildReject(node, computeReject);
+			buildBlockmap();
+			buildVertexes();
+		}
+
+		private void buildThings() {
+			things = allocate(map.getThingStore().size() * THING_SIZE);
+			for (worldthing_t thing : map.getThingStore()) {
+				things.putShort(toShort(thing.origin.x));
+				things.putShort(toShort(thing.origin.y));
+				things.putShort((short) thing.angle);
+				things.putShort((short) thing.type);
+				things.putShort((short) thing.options);
+			}
+		}
+
+		private void buildLines() {
+			List<worldline_t> lineStore = map.getLineStore();
+			int sidecount = 0;
+			for (worldline_t line : lineStore) {
+				sidecount += line.side.length;
+			}
+			checkCount(sidecount, 0x7FFF, "sidedefs");
+
+			linedefs = allocate(lineStore.size() * LINEDEF_SIZE);
+			sidedefs = allocate(sidecount * SIDEDEF_SIZE);
+
+			int sidenum = 0;
+			for (int i = 0; i < lineStore.size(); i++) {
+				worldline_t line = lineStore.get(i);
+				linenums.put(line, i);
+
+				linedefs.putShort((short) vertexNum(line.p1.x, line.p1.y));
+				linedefs.putShort((short) vertexNum(line.p2.x, line.p2.y));
+				linedefs.putShort((short) line.flags);
+				linedefs.putShort((short) line.special);
+				linedefs.putShort((short) line.tag);
+				linedefs.putShort((short) sidenum++);
+				linedefs.putShort((short) (line.side.length > 1 ? sidenum++ : -1));
+
+				for (worldside_t side : line.side) {
+					sidedefs.putShort((short) side.firstcollumn);
+					sidedefs.putShort((short) side.firstrow);
+					putName(sidedefs, side.toptexture);
+					putName(sidedefs, side.bottomtexture);
+					putName(sidedefs, side.midtexture);
+					sidedefs.putShort((short) side.sector);
+				}
+			}
+		}
+
+		private void buildSectors() {
+			List<sectordef_t> sectorStore = map.getSectorStore();
+			checkCount(sectorStore.size(), 0x7FFF, "sectors");
+			sectors = allocate(sectorStore.size() * SECTOR_SIZE);
+			for (sectordef_t e : sectorStore) {
+				sectors.putShort((short) e.floorheight);
+				sectors.putShort((short) e.ceilingheight);
+				putName(sectors, e.floorflat);
+				putName(sectors, e.ceilingflat);
+				sectors.putShort((short) e.lightlevel);
+				sectors.putShort((short) e.special);
+				sectors.putShort((short) e.tag);
+			}
+		}
+
+		private void buildReject(bspnode_t node, boolean compute) {
+			int count = map.getSectorStore().size();
+			reject = allocate((count * count + 7) >>> 3);
+			if (compute) {
+				reject.put(Reject.build(map, new SectorGraph(map, node)).toLump());
+			} else {
+				reject.position(reject.limit());		// all zero, nothing rejected
+			}
+		}
+
+		private void buildBlockmap() {
+			short[] lump = Blockmap.build(map.getLineStore()).toLump();
+			blockmap = allocate(2 * lump.length);
+			for (short s : lump) {
+				blockmap.putShort(s);
+			}
+		}
+
+		private int vertexNum(double x, double y) {
+			int vx = toShort(x), vy = toShort(y);
+			Integer key = (vx << 16) | (vy & 0xFFFF);
+			Integer num = vertexnums.get(key);
+			if (num == null) {
+				num = vertexcount;
+				checkCount(vertexcount + 1, 0x7FFF, "vertexes");
+				if (2 * vertexcount == vertexcoords.length) {
+					vertexcoords = Arrays.copyOf(vertexcoords, 2 * vertexcoords.length);
+				}
+				vertexcoords[2 * vertexcount] = vx;
+				vertexcoords[2 * vertexcount + 1] = vy;
+				vertexcount++;
+				vertexnums.put(key, num);
+			}
+			return num;
+		}
+
+		private void buildVertexes() {
+			vertexes = allocate(vertexcount * VERTEX_SIZE);
+			for (int i = 0; i < 2 * vertexcount; i++) {
+				vertexes.putShort((short) vertexcoords[i]);
+			}
+		}
+
+		/*
+		================
+		=
+		= buildTree
+		=
+		= Nodes are written children first, so the root is the last node.
+		= The segs of a subsector are consecutive
+		=
+		================
+		*/
+
+		private void buildTree(bspnode_t node) {
+			int[] counts = new int[3];
+			countTree(node, counts);
+			checkCount(counts[0], 0x7FFF, "segs");
+			checkCount(counts[1], 0x7FFF, "subsectors");
+			checkCount(counts[2], 0x7FFF, "nodes");
+
+			segs = allocate(counts[0] * SEG_SIZE);
+			ssectors = allocate(counts[1] * SSECTOR_SIZE);
+			nodes = allocate(counts[2] * NODE_SIZE);
+
+			buildNode(node);
+		}
+
+		private void countTree(bspnode_t node, int[] counts) {
+			if (node.lines_i != null) {
+				counts[0] += node.lines_i.size();
+				counts[1]++;
+				return;
+			}
+			counts[2]++;
+			countTree(node.side[0], counts);
+			countTree(node.side[1], counts);
+		}
+
+		private int buildNode(bspnode_t node) {
+			if (node.lines_i != null) {
+				ssectors.putShort((short) node.lines_i.size());
+				ssectors.putShort((short) segcount);
+				for (line_t line : node.lines_i) {
+					buildSeg(line);
+				}
+				return ssectorcount++ | NF_SUBSECTOR;
+			}
+
+			int right = buildNode(node.side[0]);
+			int left = buildNode(node.side[1]);
+
+			nodes.putShort(toShort(node.divline.pt.x));
+			nodes.putShort(toShort(node.divline.pt.y));
+			nodes.putShort(toShort(node.divline.dx));
+			nodes.putShort(toShort(node.divline.dy));
+			putBBox(node.side[0].bbox);
+			putBBox(node.side[1].bbox);
+			nodes.putShort((short) right);
+			nodes.putShort((short) left);
+			return nodecount++;
+		}
+
+		private void putBBox(bbox_t bbox) {
+			nodes.putShort(toShort(bbox.y2));	// top
+			nodes.putShort(toShort(bbox.y1));	// bottom
+			nodes.putShort(toShort(bbox.x1));	// left
+			nodes.putShort(toShort(bbox.x2));	// right
+		}
+
+		private void buildSeg(line_t line) {
+			double angle = Math.atan2(line.p2.y - line.p1.y, line.p2.x - line.p1.x);
+
+			segs.putShort((short) vertexNum(line.p1.x, line.p1.y));
+			segs.putShort((short) vertexNum(line.p2.x, line.p2.y));
+			segs.putShort((short) Math.round(angle * 32768 / Math.PI));
+			segs.putShort(linenums.get(line.linedef).shortValue());
+			segs.putShort((short) line.side);
+			segs.putShort((short) line.offset);
+			segcount++;
+		}
+	}
+}
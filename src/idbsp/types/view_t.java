@@ -2,4 +2,5 @@ package idbsp.types;
 
 public class view_t {
 	public NXPoint pt;
+	public double angle;				// radians, counterclockwise from east
 }
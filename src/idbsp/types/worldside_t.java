@@ -6,6 +6,6 @@ public class worldside_t {
 	public String		toptexture;
 	public String		bottomtexture;
 	public String		midtexture;
-	public sectordef_t	sectordef;			// on the viewer's side
-	public int			sector;				// only used when saving doom map
+	public sectordef_t	sectordef;			// on the viewer's side, shared by the sides of a sector
+	public int			sector;				// index in the sector store, see SectorBuilder
 }
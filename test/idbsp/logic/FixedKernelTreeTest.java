@@ -0,0 +1,104 @@
+package idbsp.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import idbsp.types.bspnode_t;
+import idbsp.types.line_t;
+import idbsp.types.worldline_t;
+
+/**
+ * FixedKernelTreeTest
+ *
+ * The FixedKernel decides every side and cut exactly, so its trees must be
+ * the same bit for bit in every mode of the partitioner and should be on
+ * every JVM. Each map is built plain, indexed, parallel and memoized and
+ * the SHA-256 of every tree is compared with the one stored here. These
+ * are a regression baseline taken on one JVM (JDK 17), not a check across
+ * JVMs.
+ *
+ */
+public class FixedKernelTreeTest {
+
+	private static final String[][] TREES = {
+		{ "e1m1", "kjOSMEzGenKn/Xbl" },
+		{ "e1m2", "HnmHmNsrAAXybSlo" },
+		{ "e2m7", "fnbRJ79R5Y5KA3IA" },
+		{ "e3m6", "Xv+LM3D7sTzdOU8x" },
+		{ "ShawnMap", "4JLOJAZ2Pfmxm0pz" },
+	};
+
+	private static final String[] MODES = { "plain", "indexed", "parallel", "memo" };
+
+
+	@Test
+	public void treesAreTheStoredOnes() throws Exception {
+		for (String[] tree : TREES) {
+			for (String mode : MODES) {
+				assertEquals(tree[0] + " " + mode, tree[1], build(tree[0], mode));
+			}
+		}
+	}
+
+	private static String build(String map, String mode) throws Exception {
+		DoomMap doomMap = new DoomMapLoader().load(Paths.get("maps", map + ".dwd"));
+		BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
+		partitioner.setVerbose(false);
+		partitioner.setKernel(new FixedKernel());
+		switch (mode) {
+		case "indexed":
+			partitioner.setIndexed(true);
+			break;
+		case "parallel":
+			partitioner.setIndexed(true);
+			partitioner.setParallel(true);
+			break;
+		case "memo":
+			partitioner.setIndexed(true);
+			partitioner.setMemoized(true);
+			break;
+		}
+		partitioner.process(doomMap);
+
+		List<worldline_t> lineStore = doomMap.getLineStore();
+		IdentityHashMap<worldline_t, Integer> linenums = new IdentityHashMap<>();
+		for (int i = 0; i < lineStore.size(); i++) {
+			linenums.put(lineStore.get(i), i);
+		}
+		StringBuilder text = new StringBuilder();
+		write(partitioner.getNode(), linenums, text);
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.US_ASCII));
+		return Base64.getEncoder().encodeToString(hash).substring(0, 16);
+	}
+
+	/**
+	 * Every node as text: the bounding box, then the divline and both
+	 * subtrees, or the segments of a terminal node.
+	 */
+	private static void write(bspnode_t node, IdentityHashMap<worldline_t, Integer> linenums, StringBuilder text) {
+		text.append("B ").append(node.bbox.x1).append(' ').append(node.bbox.x2)
+			.append(' ').append(node.bbox.y1).append(' ').append(node.bbox.y2).append('\n');
+		if (node.lines_i != null) {
+			text.append("L ").append(node.lines_i.size()).append('\n');
+			for (line_t line : node.lines_i) {
+				text.append(line.p1.x).append(' ').append(line.p1.y).append(' ')
+					.append(line.p2.x).append(' ').append(line.p2.y).append(' ')
+					.append(linenums.get(line.linedef)).append(' ').append(line.side).append(' ')
+					.append(line.offset).append('\n');
+			}
+			return;
+		}
+		text.append("D ").append(node.divline.pt.x).append(' ').append(node.divline.pt.y)
+			.append(' ').append(node.divline.dx).append(' ').append(node.divline.dy).append('\n');
+		write(node.side[0], linenums, text);
+		write(node.side[1], linenums, text);
+	}
+}
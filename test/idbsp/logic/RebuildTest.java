@@ -0,0 +1,228 @@
+package idbsp.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import idbsp.types.NXPoint;
+import idbsp.types.bbox_t;
+import idbsp.types.bspnode_t;
+import idbsp.types.divline_t;
+import idbsp.types.line_t;
+import idbsp.types.worldline_t;
+
+/**
+ * RebuildTest
+ *
+ * A vertex of a real map is moved, a line added next to it and another one
+ * removed, and the tree is rebuilt from the previous one with the LineDiff.
+ * The tree must be valid: every segment is on the side of each divline
+ * above it it was put on, and the segments of each line cover it, no more
+ * and no less. Subtrees whose bounding box misses the edits must be the
+ * previous nodes themselves.
+ *
+ */
+public class RebuildTest {
+
+	private static final String MAP = "maps/e1m1.dwd";
+	private static final double MOVE = 24;			// the vertex moves by this in x and y
+	private static final double SNAP = 0.15;			// length a cut point snapped to the grid may add
+
+	private GeometryKernel kernel;
+	private DoomMap doomMap;
+	private BinarySpacePartitioner partitioner;
+	private bspnode_t previous;
+
+
+	@Before
+	public void setup() throws Exception {
+		kernel = new FloatKernel();
+		doomMap = new DoomMapLoader().load(Paths.get(MAP));
+		partitioner = new BinarySpacePartitioner();
+		partitioner.setVerbose(false);
+		partitioner.setKernel(kernel);
+		partitioner.process(doomMap);
+		previous = partitioner.getNode();
+	}
+
+	@Test
+	public void rebuiltTreeIsValidAndReusesUntouchedSubtrees() {
+		List<worldline_t> lineStore = doomMap.getLineStore();
+		bbox_t change = new bbox_t();
+		change.x1 = change.y1 = Double.MAX_VALUE;
+		change.x2 = change.y2 = -Double.MAX_VALUE;
+
+		// move the leftmost vertex of the map, in every line that has it
+		NXPoint vertex = lineStore.get(0).p1;
+		for (worldline_t wl : lineStore) {
+			for (NXPoint p : new NXPoint[] { wl.p1, wl.p2 }) {
+				if (p.x < vertex.x || (p.x == vertex.x && p.y < vertex.y)) {
+					vertex = p;
+				}
+			}
+		}
+		double vx = vertex.x, vy = vertex.y;
+		LineDiff diff = new LineDiff();
+		Set<worldline_t> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (worldline_t wl : lineStore) {
+			for (NXPoint p : new NXPoint[] { wl.p1, wl.p2 }) {
+				if (p.x == vx && p.y == vy) {
+					include(change, wl);
+					p.x += MOVE;
+					p.y += MOVE;
+					include(change, wl);
+					moved.add(wl);
+				}
+			}
+		}
+		for (worldline_t wl : moved) {
+			diff.change(wl);
+		}
+
+		// add a line from the vertex into the map, remove the nearest other one
+		worldline_t template = moved.iterator().next();
+		worldline_t added = new worldline_t();
+		added.p1 = point(vx + MOVE, vy + MOVE);
+		added.p2 = point(vx + 4 * MOVE, vy + 2 * MOVE);
+		added.flags = template.flags;
+		added.side = template.side;
+		lineStore.add(added);
+		include(change, added);
+		diff.add(added);
+
+		worldline_t removed = null;
+		double nearest = Double.MAX_VALUE;
+		for (worldline_t wl : lineStore) {
+			double d = Math.hypot((wl.p1.x + wl.p2.x) / 2 - vx, (wl.p1.y + wl.p2.y) / 2 - vy);
+			if (!moved.contains(wl) && wl != added && d < nearest) {
+				nearest = d;
+				removed = wl;
+			}
+		}
+		include(change, removed);
+		lineStore.remove(removed);
+		diff.remove(removed);
+
+		partitioner.rebuild(doomMap, previous, diff);
+		bspnode_t rebuilt = partitioner.getNode();
+		assertNotSame(previous, rebuilt);
+
+		// every segment on its side of the divlines above it, the length of
+		// the segments of each line and side
+		Map<worldline_t, double[]> lengths = new IdentityHashMap<>();
+		Map<worldline_t, int[]> pieces = new IdentityHashMap<>();
+		check(rebuilt, new ArrayList<>(), new ArrayList<>(), lengths, pieces);
+		assertEquals("lines with segments", lineStore.size(), lengths.size());
+		for (int i = 0; i < lineStore.size(); i++) {
+			worldline_t wl = lineStore.get(i);
+			double length = Math.hypot(wl.p2.x - wl.p1.x, wl.p2.y - wl.p1.y);
+			double[] covered = lengths.get(wl);
+			int[] count = pieces.get(wl);
+			for (int side = 0; side < 2; side++) {
+				double expected = (side == 1 && (wl.flags & Constants.ML_TWOSIDED) == 0 ? 0 : length);
+				assertEquals("line " + i + " side " + side, expected, covered[side], SNAP * count[side]);
+			}
+		}
+
+		// the subtrees away from the edits are the previous nodes
+		Set<bspnode_t> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+		collect(rebuilt, nodes);
+		List<bspnode_t> untouched = new ArrayList<>();
+		untouched(previous, change, untouched);
+		assertTrue("no subtree away from the edits", untouched.size() > 1);
+		for (bspnode_t node : untouched) {
+			assertTrue("subtree away from the edits was rebuilt", nodes.contains(node));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noLinesLeft() {
+		LineDiff diff = new LineDiff();
+		for (worldline_t wl : doomMap.getLineStore()) {
+			diff.remove(wl);
+		}
+		doomMap.getLineStore().clear();
+		partitioner.rebuild(doomMap, previous, diff);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lineNotInTheMap() {
+		worldline_t wl = new worldline_t();
+		wl.p1 = point(0, 0);
+		wl.p2 = point(64, 0);
+		wl.side = doomMap.getLineStore().get(0).side;
+		partitioner.rebuild(doomMap, previous, new LineDiff().add(wl));
+	}
+
+	/**
+	 * Checks the segments below node_p against the divlines above it, each
+	 * with the side it was taken on, and adds up their lengths per line.
+	 */
+	private void check(bspnode_t node_p, List<divline_t> divlines, List<Integer> sides,
+			Map<worldline_t, double[]> lengths, Map<worldline_t, int[]> pieces) {
+		if (node_p.lines_i != null) {
+			for (line_t line : node_p.lines_i) {
+				for (int d = 0; d < divlines.size(); d++) {
+					divline_t divline = divlines.get(d);
+					int side = kernel.LineOnSide(line.p1.x, line.p1.y, line.p2.x, line.p2.y,
+							divline.pt.x, divline.pt.y, divline.dx, divline.dy);
+					assertEquals("segment of a line on the wrong side of a divline", (int) sides.get(d), side);
+				}
+				lengths.computeIfAbsent(line.linedef, k -> new double[2])[line.side] += Math.hypot(line.p2.x - line.p1.x, line.p2.y - line.p1.y);
+				pieces.computeIfAbsent(line.linedef, k -> new int[2])[line.side]++;
+			}
+			return;
+		}
+		for (int side = 0; side < 2; side++) {
+			divlines.add(node_p.divline);
+			sides.add(side);
+			check(node_p.side[side], divlines, sides, lengths, pieces);
+			divlines.remove(divlines.size() - 1);
+			sides.remove(sides.size() - 1);
+		}
+	}
+
+	private static void collect(bspnode_t node_p, Set<bspnode_t> nodes) {
+		nodes.add(node_p);
+		if (node_p.lines_i == null) {
+			collect(node_p.side[0], nodes);
+			collect(node_p.side[1], nodes);
+		}
+	}
+
+	// the largest subtrees whose bounding box does not meet the edits
+	private static void untouched(bspnode_t node_p, bbox_t change, List<bspnode_t> untouched) {
+		bbox_t b = node_p.bbox;
+		if (b.x2 < change.x1 || b.x1 > change.x2 || b.y2 < change.y1 || b.y1 > change.y2) {
+			untouched.add(node_p);
+		} else if (node_p.lines_i == null) {
+			untouched(node_p.side[0], change, untouched);
+			untouched(node_p.side[1], change, untouched);
+		}
+	}
+
+	private static void include(bbox_t box, worldline_t wl) {
+		box.x1 = Math.min(box.x1, Math.min(wl.p1.x, wl.p2.x));
+		box.x2 = Math.max(box.x2, Math.max(wl.p1.x, wl.p2.x));
+		box.y1 = Math.min(box.y1, Math.min(wl.p1.y, wl.p2.y));
+		box.y2 = Math.max(box.y2, Math.max(wl.p1.y, wl.p2.y));
+	}
+
+	private static NXPoint point(double x, double y) {
+		NXPoint p = new NXPoint();
+		p.x = x;
+		p.y = y;
+		return p;
+	}
+}
@@ -0,0 +1,105 @@
+package idbsp.logic;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SplitAllocationTest
+ *
+ * EvaluateSplit and ExecuteSplit on the segments of a real map must not
+ * allocate per candidate: the bytes the thread allocates while every
+ * segment is graded, or split along where that cuts nothing, stay below
+ * one per call. Both are run WARMUPS times before, so the side buffer of
+ * the thread has its size and the methods are compiled.
+ *
+ */
+public class SplitAllocationTest {
+
+	private static final String MAP = "maps/e1m1.dwd";
+	private static final int WARMUPS = 20;
+
+	private com.sun.management.ThreadMXBean threads;
+	private BinarySpacePartitioner partitioner;
+	private int[] lines_i;
+
+
+	@Before
+	public void setup() throws Exception {
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		DoomMap doomMap = new DoomMapLoader().load(Paths.get(MAP));
+		partitioner = new BinarySpacePartitioner();
+		partitioner.setVerbose(false);
+		partitioner.process(doomMap);
+		lines_i = partitioner.getSegmentsStore().all();
+	}
+
+	@Test
+	public void evaluateSplitDoesNotAllocate() {
+		long sink = 0;
+		for (int w = 0; w < WARMUPS; w++) {
+			sink += evaluateAll();
+		}
+
+		long before = allocatedBytes();
+		sink += evaluateAll();
+		long bytes = allocatedBytes() - before;
+
+		assertTrue(String.format("%d bytes for %d candidates (%d)", bytes, lines_i.length, sink), bytes < lines_i.length);
+	}
+
+	@Test
+	public void executeSplitDoesNotAllocate() {
+		SegmentStore store = partitioner.getSegmentsStore();
+		GeometryKernel kernel = new FloatKernel();
+		int[] uncut = new int[lines_i.length];
+		int n = 0;
+		for (int spliton : lines_i) {
+			double lx = store.x1()[spliton], ly = store.y1()[spliton];
+			double ldx = store.x2()[spliton] - lx, ldy = store.y2()[spliton] - ly;
+			long counts = kernel.LinesOnSide(store.x1(), store.y1(), store.x2(), store.y2(), lines_i, 0, lines_i.length,
+					lx, ly, ldx, ldy, null);
+			if ((int) (counts >>> 32) + (int) counts == lines_i.length) {
+				uncut[n++] = spliton;
+			}
+		}
+		assertTrue("no split without cuts", n > 0);
+
+		int[] frontlist_i = new int[lines_i.length];
+		int[] backlist_i = new int[lines_i.length];
+		long sink = 0;
+		for (int w = 0; w < WARMUPS; w++) {
+			sink += executeAll(uncut, n, frontlist_i, backlist_i);
+		}
+
+		long before = allocatedBytes();
+		sink += executeAll(uncut, n, frontlist_i, backlist_i);
+		long bytes = allocatedBytes() - before;
+
+		assertTrue(String.format("%d bytes for %d splits (%d)", bytes, n, sink), bytes < n);
+	}
+
+	private long evaluateAll() {
+		long sum = 0;
+		for (int spliton : lines_i) {
+			sum += partitioner.EvaluateSplit(lines_i, spliton, Integer.MAX_VALUE);
+		}
+		return sum;
+	}
+
+	private long executeAll(int[] splits, int n, int[] frontlist_i, int[] backlist_i) {
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += partitioner.ExecuteSplit(lines_i, splits[i], frontlist_i, backlist_i);
+		}
+		return sum;
+	}
+
+	private long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,72 @@
+package idbsp.logic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.file.Paths;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * VectorKernelTest
+ *
+ * The LinesOnSide of the kernel FloatKernel.create gives must decide the
+ * same side for every segment and return the same counts as the scalar
+ * FloatKernel. The segments are the ones of the trees of real maps, cut
+ * points included, against every one of them as divline, so there are
+ * axis parallel, sloping and colinear cases. The range starts and ends
+ * off the vector lanes. Runs where the runtime has jdk.incubator.vector.
+ *
+ */
+public class VectorKernelTest {
+
+	private static final String[] MAPS = { "e1m1", "e3m6", "ShawnMap" };
+
+
+	@Test
+	public void createTakesTheVectorKernel() {
+		Assume.assumeTrue(hasVectorModule());
+		assertNotEquals(FloatKernel.class, FloatKernel.create().getClass());
+	}
+
+	@Test
+	public void sidesAreTheScalarOnes() throws Exception {
+		Assume.assumeTrue(hasVectorModule());
+		GeometryKernel scalar = new FloatKernel();
+		GeometryKernel vector = FloatKernel.create();
+
+		for (String map : MAPS) {
+			BinarySpacePartitioner partitioner = new BinarySpacePartitioner();
+			partitioner.setVerbose(false);
+			partitioner.setKernel(scalar);
+			partitioner.process(new DoomMapLoader().load(Paths.get("maps", map + ".dwd")));
+			SegmentStore store = partitioner.getSegmentsStore();
+			double[] x1 = store.x1(), y1 = store.y1(), x2 = store.x2(), y2 = store.y2();
+			int[] lines_i = store.all();
+			int from = Math.min(3, lines_i.length), to = Math.max(from, lines_i.length - 2);
+			byte[] expected = new byte[to - from];
+			byte[] actual = new byte[to - from];
+
+			for (int spliton : lines_i) {
+				double lx = x1[spliton], ly = y1[spliton];
+				double ldx = x2[spliton] - lx, ldy = y2[spliton] - ly;
+				String where = map + " divline " + spliton;
+				long counts = scalar.LinesOnSide(x1, y1, x2, y2, lines_i, from, to, lx, ly, ldx, ldy, expected);
+				assertEquals(where, counts, vector.LinesOnSide(x1, y1, x2, y2, lines_i, from, to, lx, ly, ldx, ldy, actual));
+				assertArrayEquals(where, expected, actual);
+				assertEquals(where, counts, vector.LinesOnSide(x1, y1, x2, y2, lines_i, from, to, lx, ly, ldx, ldy, null));
+			}
+		}
+	}
+
+	private static boolean hasVectorModule() {
+		try {
+			Class.forName("jdk.incubator.vector.DoubleVector");
+			return true;
+		} catch (ClassNotFoundException _ex) {
+			return false;
+		}
+	}
+}